@@ -0,0 +1,93 @@
+import benchmark.SimulationHotPaths;
+
+/**
+ * Exposes the hot paths of {@code SimulationEngine} to the benchmarks.
+ *
+ * This class is in the default package so that it can reach the package-private engine.
+ */
+public class EngineHotPaths implements SimulationHotPaths, SimulationLimits {
+
+    //Area given to each particle, in square units, so that the density of the simulation is the same for every number of particles
+    private static final int areaPerParticle = 1600;
+    //Every trial simulates the same particles
+    private static final long seed = 2014;
+
+    private SimulationEngine engine;
+    private boolean offHeap;
+    //Whether particles are next moved forwards along their direction
+    private boolean forwards = true;
+
+    public EngineHotPaths(){
+    }
+
+    @Override
+    public int setUp(int particles, int pores, double speed, int threads, boolean eventDriven) {
+        //Keep the proportions of the default area (twice as wide as high) and leave enough height for the pores
+        int width = Math.max(MIN_WIDTH, (int)Math.sqrt(2.0*particles*areaPerParticle));
+        int height = Math.max(Math.max(MIN_HEIGHT, width/2), pores*SimulationEngine.poreHeight*2);
+        engine = new SimulationEngine(height, width, pores);
+        engine.setSeed(seed);
+        engine.setSpeed(speed);
+        engine.setParallelism(threads);
+        engine.setEventDriven(eventDriven);
+        engine.setOffHeap(offHeap);
+        return fill(particles);
+    }
+
+    @Override
+    public boolean setVectorized(boolean vectorized) {
+        engine.setVectorized(vectorized);
+        return engine.isVectorized();
+    }
+
+    @Override
+    public void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    @Override
+    public void step() {
+        engine.step();
+    }
+
+    @Override
+    public void updateParticles() {
+        //Nothing bounces particles off the walls here - moving them back the next time keeps them where collisions would
+        engine.updateParticles(0, engine.getCount(), forwards ? engine.getSpeed() : -engine.getSpeed());
+        forwards = !forwards;
+    }
+
+    @Override
+    public void checkCollisions() {
+        engine.checkCollisions();
+    }
+
+    @Override
+    public int fill(int particles) {
+        engine.initialize();
+        int added = 0;
+        for (int i = 0; i < particles; i++){
+            //Alternate between the two species and the two sides
+            if (engine.addParticle(i%2, 5, i%4 < 2 ? -1 : 1)){
+                added++;
+            }
+        }
+        return added;
+    }
+
+    @Override
+    public int fillBulk(int particles) {
+        engine.initialize();
+        int added = 0;
+        for (int k = 0; k < 4; k++){
+            added += engine.addParticles(k%2, 5, k < 2 ? -1 : 1, (particles+3-k)/4);
+        }
+        return added;
+    }
+
+    @Override
+    public void tearDown() {
+        engine.setParallelism(1);
+        engine.release();
+    }
+}
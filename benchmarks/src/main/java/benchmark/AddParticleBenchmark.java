@@ -0,0 +1,46 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to fill an empty simulation with particles added one at a time and in bulk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AddParticleBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int particles;
+
+    @Param({"3"})
+    public int pores;
+
+    private SimulationHotPaths simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulation = SimulationHotPaths.load();
+        simulation.setUp(particles, pores, 1, 1, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.tearDown();
+    }
+
+    @Benchmark
+    public int fill() {
+        return simulation.fill(particles);
+    }
+
+    @Benchmark
+    public int fillBulk() {
+        return simulation.fillBulk(particles);
+    }
+}
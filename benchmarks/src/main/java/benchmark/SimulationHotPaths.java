@@ -0,0 +1,80 @@
+package benchmark;
+
+/**
+ * Hot paths of the simulation exercised by the benchmarks.
+ *
+ * The simulation classes live in the default package, which cannot be referenced from a named package (and JMH does not accept benchmarks
+ * in the default package), so the benchmarks reach the engine through this interface. The implementation is found with a {@code ServiceLoader}.
+ */
+public interface SimulationHotPaths {
+
+    /**
+     * Sets up a new simulation filled with particles.
+     *
+     * @param particles Number of particles to add.
+     * @param pores Number of pores in the membrane.
+     * @param speed Speed of the particles.
+     * @param threads Number of threads used to update the particles.
+     * @param eventDriven Whether collisions are handled at the exact time they happen instead of once per update.
+     * @return number of particles actually added.
+     */
+    int setUp(int particles, int pores, double speed, int threads, boolean eventDriven);
+
+    /**
+     * Switches between the vectorized loops over particles and loops going through one particle at a time.
+     * Loops are only vectorized if the Vector API module is present.
+     *
+     * @param vectorized Whether loops are vectorized.
+     * @return whether loops are actually vectorized.
+     */
+    boolean setVectorized(boolean vectorized);
+
+    /**
+     * Chooses whether the particles of the next simulation set up are held outside of the heap.
+     * Particles are only held outside of the heap if the Foreign Memory API module is present.
+     *
+     * @param offHeap Whether particles are held outside of the heap.
+     */
+    void setOffHeap(boolean offHeap);
+
+    /**
+     * Moves simulation time forward by one update duration.
+     */
+    void step();
+
+    /**
+     * Moves all particles by one update duration, without checking collisions.
+     * Particles are moved forwards and backwards in turn, so that they stay within the area however many times this is called.
+     */
+    void updateParticles();
+
+    /**
+     * Checks all collisions (particles, boundary and membrane) for the current positions.
+     */
+    void checkCollisions();
+
+    /**
+     * Clears the simulation and adds particles to it one at a time.
+     *
+     * @param particles Number of particles to add.
+     * @return number of particles actually added.
+     */
+    int fill(int particles);
+
+    /**
+     * Clears the simulation and adds particles to it in bulk, a quarter of them for each species and side.
+     *
+     * @param particles Number of particles to add.
+     * @return number of particles actually added.
+     */
+    int fillBulk(int particles);
+
+    /**
+     * Releases the threads and the memory used by the simulation.
+     */
+    void tearDown();
+
+    static SimulationHotPaths load(){
+        return java.util.ServiceLoader.load(SimulationHotPaths.class).iterator().next();
+    }
+}
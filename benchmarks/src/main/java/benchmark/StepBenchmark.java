@@ -0,0 +1,72 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of one update of the simulation and of its two phases, for populations of various sizes.
+ * The phases are those of the time-stepped mode - the event-driven mode is only measured through {@link #step()}.
+ * Modes are time-stepped through one particle at a time ("stepped"), time-stepped with vectorized loops ("vectorized") and event-driven
+ * ("eventDriven", whose loops are never vectorized). Several threads only split the work of populations of at least 2048 particles.
+ *
+ * The allocation rate is reported along with the throughput when run through {@code BenchmarkMain}, the entry point of the benchmark jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+//The Vector API and Foreign Memory API modules are only resolved on request
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector,jdk.incubator.foreign")
+public class StepBenchmark {
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int particles;
+
+    @Param({"0", "3", "10"})
+    public int pores;
+
+    @Param({"1", "10"})
+    public double speed;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"stepped", "vectorized", "eventDriven"})
+    public String mode;
+
+    //Off-heap particles only pay off for populations far larger than those above - run with -p offHeap=true,false -p particles=... to compare
+    @Param({"false"})
+    public boolean offHeap;
+
+    private SimulationHotPaths simulation;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        simulation = SimulationHotPaths.load();
+        simulation.setOffHeap(offHeap);
+        simulation.setUp(particles, pores, speed, threads, mode.equals("eventDriven"));
+        simulation.setVectorized(mode.equals("vectorized"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        simulation.tearDown();
+    }
+
+    @Benchmark
+    public void step() {
+        simulation.step();
+    }
+
+    @Benchmark
+    public void updateParticles() {
+        simulation.updateParticles();
+    }
+
+    @Benchmark
+    public void checkCollisions() {
+        simulation.checkCollisions();
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every simulation of a {@code ParameterSweep} without any GUI and writes the result of each run as soon as it is done.
+ *
+ * Runs are independent, so each one is done by a single thread on its own engine, with as many runs at once as the spec gives threads
+ * (by default the number of processors). Results are written in the order runs are done, as CSV or, if the output file ends with .json, as JSON.
+ * Runs can stop as soon as they reach equilibrium, since most of the updates of a long run usually only go through equilibrium.
+ *
+ * Usage: {@code java BatchRunner <sweep spec> [output file]} - results are written to the standard output if no output file is given.
+ */
+public class BatchRunner implements SimulationLimits {
+
+    //Number of updates before the first direction reset and between two resets, the same as in the GUI at its fixed time step
+    private static final long resetDelay = RESET_DELAY*1000L/TIME_STEP;
+    private static final long resetRate = RESET_RATE*1000L/TIME_STEP;
+
+    private static final String[] columns = {"run", "repetition", "height", "width", "pores", "speed", "size1", "size2",
+            "left1", "right1", "left2", "right2", "seed", "ticks", "equilibriumTick",
+            "finalLeft1", "finalRight1", "finalLeft2", "finalRight2", "percentLeft1", "percentLeft2", "seconds"};
+
+    /**
+     * Outcome of a single run.
+     */
+    static final class Result {
+        final ParameterSweep.Run run;
+        //Number of particles actually added of the numbers asked for (less if a division had no space left)
+        final int left1, right1, left2, right2;
+        final long ticks;
+        //Time to equilibrium as found by an EquilibriumDetector, -1 if never reached
+        final long equilibriumTick;
+        //Number of each particle in each division at the end of the run
+        final int finalLeft1, finalRight1, finalLeft2, finalRight2;
+        final double seconds;
+
+        Result(ParameterSweep.Run run, int[] added, SimulationEngine engine, long equilibriumTick, double seconds){
+            this.run = run;
+            left1 = added[0];
+            right1 = added[1];
+            left2 = added[2];
+            right2 = added[3];
+            ticks = engine.getTick();
+            this.equilibriumTick = equilibriumTick;
+            finalLeft1 = engine.getLeftCount(0);
+            finalRight1 = engine.getRightCount(0);
+            finalLeft2 = engine.getLeftCount(1);
+            finalRight2 = engine.getRightCount(1);
+            this.seconds = seconds;
+        }
+
+        /**
+         * @return values of the result, in the order of the columns.
+         */
+        Object[] values(){
+            return new Object[]{run.index, run.repetition, run.height, run.width, run.pores, run.speed, run.size1, run.size2,
+                    left1, right1, left2, right2, run.seed, ticks, equilibriumTick,
+                    finalLeft1, finalRight1, finalLeft2, finalRight2, percent(finalLeft1, finalRight1), percent(finalLeft2, finalRight2), seconds};
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 2){
+            System.err.println("Usage: java BatchRunner <sweep spec> [output file (.csv or .json)]");
+            System.exit(2);
+        }
+        ParameterSweep sweep;
+        try (Reader spec = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.ISO_8859_1)){
+            sweep = new ParameterSweep(spec);
+        } catch (IllegalArgumentException e){
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        boolean json = args.length == 2 && args[1].toLowerCase(Locale.ROOT).endsWith(".json");
+        try (Writer out = args.length == 2 ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))){
+            run(sweep, out, json);
+        }
+    }
+
+    /**
+     * Runs every simulation of a sweep and writes the results.
+     *
+     * @param sweep Sweep to run.
+     * @param out Where the results are written, flushed after every result.
+     * @param json Whether results are written as a JSON array instead of CSV.
+     * @throws IOException if the results can not be written.
+     */
+    static void run(ParameterSweep sweep, Writer out, boolean json) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(sweep.getThreads());
+        try {
+            CompletionService<Result> results = new ExecutorCompletionService<>(pool);
+            for (ParameterSweep.Run run : sweep.getRuns()){
+                results.submit(() -> run(run, sweep));
+            }
+            out.write(json ? "[" : String.join(",", columns));
+            int total = sweep.getRuns().size();
+            for (int done = 0; done < total; done++){
+                Result result;
+                try {
+                    result = results.take().get();
+                } catch (ExecutionException e){
+                    throw new IllegalStateException("Run failed", e.getCause());
+                }
+                out.write(json ? (done == 0 ? "\n" : ",\n")+toJson(result.values()) : "\n"+toCsv(result.values()));
+                out.flush();
+                System.err.printf("%d/%d runs done%n", done+1, total);
+            }
+            out.write(json ? "\n]\n" : "\n");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a single simulation for the number of updates of the sweep, resetting directions as the GUI does.
+     * The concentrations are sampled after every update, and the run stops early once at equilibrium if the sweep says so.
+     *
+     * @param run Settings of the run.
+     * @param sweep Sweep the run is part of.
+     * @return outcome of the run.
+     */
+    static Result run(ParameterSweep.Run run, ParameterSweep sweep){
+        long start = System.nanoTime();
+        SimulationEngine engine = new SimulationEngine(run.height, run.width, run.pores);
+        engine.setSeed(run.seed);
+        engine.setSpeed(run.speed);
+        engine.initialize();
+        int[] added = {
+                engine.addParticles(0, run.size1, -1, run.left1),
+                engine.addParticles(0, run.size1, 1, run.right1),
+                engine.addParticles(1, run.size2, -1, run.left2),
+                engine.addParticles(1, run.size2, 1, run.right2)
+        };
+        EquilibriumDetector detector = new EquilibriumDetector(sweep.getTolerance(), sweep.getWindow());
+        int[] left = new int[2], right = new int[2];
+        while (engine.getTick() < sweep.getTicks()){
+            engine.step();
+            long tick = engine.getTick();
+            if (isResetTick(tick)){
+                engine.resetAllDirections();
+            }
+            for (int s = 0; s < 2; s++){
+                left[s] = engine.getLeftCount(s);
+                right[s] = engine.getRightCount(s);
+            }
+            if (detector.sample(tick, left, right) && sweep.isStopAtEquilibrium()){
+                break;
+            }
+        }
+        return new Result(run, added, engine, detector.getEquilibriumTick(), (System.nanoTime()-start)/1e9);
+    }
+
+    /**
+     * @return whether directions are reset after update {@code tick}.
+     */
+    static boolean isResetTick(long tick){
+        return tick == resetDelay || (tick > resetDelay && (tick-resetDelay) % resetRate == 0);
+    }
+
+    /**
+     * @return percentage of particles in the left division, 0 if there are none.
+     */
+    static double percent(int left, int right){
+        return left+right == 0 ? 0 : 100.0*left/(left+right);
+    }
+
+    static String toCsv(Object[] values){
+        StringBuilder line = new StringBuilder();
+        for (int k = 0; k < values.length; k++){
+            if (k > 0){
+                line.append(',');
+            }
+            line.append(values[k]);
+        }
+        return line.toString();
+    }
+
+    private static String toJson(Object[] values){
+        StringBuilder object = new StringBuilder("  {");
+        for (int k = 0; k < values.length; k++){
+            if (k > 0){
+                object.append(", ");
+            }
+            object.append('"').append(columns[k]).append("\": ").append(values[k]);
+        }
+        return object.append('}').toString();
+    }
+}
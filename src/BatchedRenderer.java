@@ -0,0 +1,222 @@
+import javafx.scene.Scene;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.transform.Transform;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Draws the state of a {@code SimulationEngine} into a single image shown in a {@code SimulationArea}.
+ *
+ * Particles and blocks are drawn into a pixel buffer straight from the primitive arrays of a {@code FrameSnapshot} and the buffer is copied
+ * into the image in one batch per frame, so the scene graph holds a single node however many particles there are.
+ * {@link #render(FrameSnapshot, FrameSnapshot, double)} is to be called on the JavaFX application thread once per frame.
+ *
+ * Beyond {@code DENSITY_RENDERING_THRESHOLD} particles per pixel on screen (fewer when zoomed out), particles are no longer drawn one by one:
+ * the area is divided into cells of a few pixels on screen, the area covered by each species is summed up in each cell,
+ * and each cell is filled with the colours of the species blended by how much of the cell they cover.
+ * Drawing then takes time in proportion to the pixels of the area rather than to the particles.
+ */
+class BatchedRenderer implements SimulationView, SimulationLimits {
+
+    private static final PixelFormat<IntBuffer> pixelFormat = PixelFormat.getIntArgbPreInstance();
+    //Particles are drawn one by one again once there are fewer than this fraction of the threshold per pixel, so that a number of particles
+    //close to the threshold does not switch back and forth between the two
+    private static final double detailHysteresis = 0.8;
+    //Side of a cell of the density, in pixels on screen
+    private static final int densityCellPixels = 4;
+
+    private SimulationArea area;
+    //Membrane currently drawn in the background, null if none
+    private Membrane membrane;
+
+    private int width, height;
+    private WritableImage image;
+    //Pixels of the frame being drawn, and the membrane alone (copied into pixels at the start of every frame)
+    private int[] pixels;
+    private int[] background;
+
+    //Colour of each species, as a premultiplied ARGB value
+    private final int[] speciesColor;
+    //Whether particles are drawn as their density, side of a cell in pixels of the image, cells in each direction,
+    //and sum of the squared radii of the particles of each species in each cell
+    private boolean density;
+    private int cellSize, cellColumns, cellRows;
+    private double[][] covered;
+
+    //discSpans[r][dy] is the number of pixels on either side of the center of a disc of radius r, dy rows away from its center
+    private final int[][] discSpans;
+
+    BatchedRenderer(){
+        speciesColor = new int[]{toArgb(PARTICLE_COLOR_1), toArgb(PARTICLE_COLOR_2)};
+        discSpans = new int[MAX_SIZE+1][];
+        for (int r = 0; r <= MAX_SIZE; r++){
+            discSpans[r] = new int[r+1];
+            for (int dy = 0; dy <= r; dy++){
+                discSpans[r][dy] = (int)Math.sqrt((double)r*r-dy*dy);
+            }
+        }
+    }
+
+    @Override
+    public void rebuild(SimulationArea area){
+        this.area = area;
+        area.getChildren().clear();
+        membrane = null;
+    }
+
+    /**
+     * Creates the image for the area and the membrane of the given snapshot.
+     */
+    private void rebuildImage(FrameSnapshot frame){
+        membrane = frame.getMembrane();
+        width = frame.getWidth();
+        height = frame.getHeight();
+        image = new WritableImage(width, height);
+        pixels = new int[width*height];
+        background = new int[width*height];
+        //The cells of the density are made again for the new size
+        cellSize = 0;
+
+        //The blocks never move, so they are drawn once into the background
+        int blockColor = toArgb(Block.color);
+        int left = (int)Math.round(width/2.0-membrane.getHalfWidth()), right = (int)Math.round(width/2.0+membrane.getHalfWidth());
+        for (int j = 0; j < membrane.getBlockCount(); j++){
+            int top = (int)Math.round(membrane.getTop(j)+height/2.0);
+            int bottom = (int)Math.round(membrane.getBottom(j)+height/2.0);
+            for (int row = Math.max(0, top); row < Math.min(height, bottom); row++){
+                Arrays.fill(background, row*width+Math.max(0, left), row*width+Math.min(width, right), blockColor);
+            }
+        }
+
+        area.getChildren().clear();
+        area.getChildren().add(new ImageView(image));
+    }
+
+    @Override
+    public void render(FrameSnapshot previous, FrameSnapshot frame, double alpha){
+        //The engine was initialized since the last frame
+        if (frame.getMembrane() != membrane){
+            rebuildImage(frame);
+        }
+        double zoom = zoom();
+        double perPixel = frame.getCount()/(width*height*zoom*zoom);
+        density = perPixel > (density ? detailHysteresis : 1)*DENSITY_RENDERING_THRESHOLD;
+        System.arraycopy(background, 0, pixels, 0, pixels.length);
+        if (density){
+            drawDensity(previous, frame, alpha, Math.max(1, (int)Math.round(densityCellPixels/zoom)));
+        } else {
+            for (int i = 0; i < frame.getCount(); i++){
+                drawDisc((int)Math.round(frame.getX(i, previous, alpha)+width/2.0), (int)Math.round(frame.getY(i, previous, alpha)+height/2.0),
+                        (int)Math.round(frame.getRadius(i)), speciesColor[frame.getSpecies(i)]);
+            }
+        }
+        image.getPixelWriter().setPixels(0, 0, width, height, pixelFormat, pixels, 0, width);
+    }
+
+    /**
+     * @return number of pixels on screen per unit of the area - more than 1 if the area is scaled up or the screen has a high density of pixels.
+     */
+    private double zoom(){
+        Transform toScene = area.getLocalToSceneTransform();
+        double zoom = Math.hypot(toScene.getMxx(), toScene.getMyx());
+        Scene scene = area.getScene();
+        if (scene != null && scene.getWindow() != null){
+            zoom *= scene.getWindow().getOutputScaleX();
+        }
+        return zoom > 0 ? zoom : 1;
+    }
+
+    /**
+     * Fills the pixel buffer with the density of each species, in cells of {@code size} pixels.
+     * Particles are binned by their center, and each cell is as opaque as the fraction of it the particles in it would cover without overlapping.
+     */
+    private void drawDensity(FrameSnapshot previous, FrameSnapshot frame, double alpha, int size){
+        if (size != cellSize){
+            cellSize = size;
+            cellColumns = (width+size-1)/size;
+            cellRows = (height+size-1)/size;
+            covered = new double[2][cellColumns*cellRows];
+        } else {
+            Arrays.fill(covered[0], 0);
+            Arrays.fill(covered[1], 0);
+        }
+        for (int i = 0; i < frame.getCount(); i++){
+            int column = (int)((frame.getX(i, previous, alpha)+width/2.0)/size), row = (int)((frame.getY(i, previous, alpha)+height/2.0)/size);
+            column = Math.max(0, Math.min(cellColumns-1, column));
+            row = Math.max(0, Math.min(cellRows-1, row));
+            double r = frame.getRadius(i);
+            covered[frame.getSpecies(i)][row*cellColumns+column] += r*r;
+        }
+
+        //Squared radii covering a whole cell
+        double full = size*size/Math.PI;
+        for (int row = 0; row < cellRows; row++){
+            for (int column = 0; column < cellColumns; column++){
+                int c = row*cellColumns+column;
+                double total = covered[0][c]+covered[1][c];
+                if (total == 0){
+                    continue;
+                }
+                double opacity = Math.min(1, total/full);
+                int color = blend(covered[0][c]/total, opacity);
+                for (int y = row*size; y < Math.min(height, (row+1)*size); y++){
+                    for (int p = y*width+column*size, end = y*width+Math.min(width, (column+1)*size); p < end; p++){
+                        pixels[p] = background[p] == 0 ? color : over(color, opacity, background[p]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return colour of particle 1 and particle 2 mixed in the given proportions, at the given opacity, as a premultiplied ARGB value.
+     */
+    private int blend(double share1, double opacity){
+        int color = 0;
+        for (int shift = 0; shift < 32; shift += 8){
+            double channel = share1*(speciesColor[0] >>> shift & 0xff)+(1-share1)*(speciesColor[1] >>> shift & 0xff);
+            color |= (int)Math.round(channel*opacity) << shift;
+        }
+        return color;
+    }
+
+    /**
+     * @return premultiplied ARGB colour {@code color} of the given opacity drawn over premultiplied ARGB colour {@code under}.
+     */
+    private static int over(int color, double opacity, int under){
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8){
+            result |= Math.min(255, (color >>> shift & 0xff)+(int)Math.round((under >>> shift & 0xff)*(1-opacity))) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Fills a disc in the pixel buffer, clipped to the image.
+     *
+     * @param cx Column of the center.
+     * @param cy Row of the center.
+     * @param r Radius in pixels.
+     * @param color Premultiplied ARGB colour.
+     */
+    private void drawDisc(int cx, int cy, int r, int color){
+        int[] spans = discSpans[Math.min(r, MAX_SIZE)];
+        int firstRow = Math.max(0, cy-r), lastRow = Math.min(height-1, cy+r);
+        for (int row = firstRow; row <= lastRow; row++){
+            int span = spans[Math.abs(row-cy)];
+            int from = Math.max(0, cx-span), to = Math.min(width-1, cx+span);
+            if (from <= to){
+                Arrays.fill(pixels, row*width+from, row*width+to+1, color);
+            }
+        }
+    }
+
+    private static int toArgb(Color color){
+        return (int)Math.round(color.getOpacity()*255) << 24 | (int)Math.round(color.getRed()*255) << 16
+                | (int)Math.round(color.getGreen()*255) << 8 | (int)Math.round(color.getBlue()*255);
+    }
+}
@@ -10,7 +10,7 @@ import javafx.scene.shape.Rectangle;
 */
 class Block extends Rectangle {
     private static final int width = 10;
-    private static final Color color = Color.FORESTGREEN;
+    static final Color color = Color.FORESTGREEN;
 
     Block(double height){
         setFill(color);
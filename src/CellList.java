@@ -0,0 +1,171 @@
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the simulation area in which particles are kept in a linked list per cell.
+ *
+ * Unlike {@code SpatialGrid}, which is rebuilt from scratch every update duration, particles are added and moved between cells one at a time,
+ * e.g. as new particles are placed or as the event-driven mode of {@code SimulationEngine} finds them crossing from one cell to the next.
+ * Cells are as wide as the largest possible distance between the centers of two touching particles (twice {@code MAX_SIZE}),
+ * so a particle can only touch particles in its own cell or in one of the 8 surrounding cells.
+ */
+class CellList implements SimulationLimits {
+
+    private final double cellSize;
+    private int columns, rows;
+    private double left, top;
+
+    //First particle of each cell and, for each particle, the next and previous particles in its cell (-1 if none)
+    private int[] head;
+    private int[] next, previous;
+    private int[] cellOf;
+
+    CellList(){
+        this(2*MAX_SIZE);
+    }
+
+    CellList(double cellSize){
+        this.cellSize = cellSize;
+        next = new int[0];
+        previous = new int[0];
+        cellOf = new int[0];
+        resize(MIN_HEIGHT, MIN_WIDTH);
+    }
+
+    /**
+     * Changes the dimensions of the area covered by the grid. All cells are emptied.
+     *
+     * @param height Height of the simulation area.
+     * @param width Width of the simulation area.
+     */
+    void resize(int height, int width){
+        resize(height, -width/2.0, width/2.0);
+    }
+
+    /**
+     * Changes the area covered by the grid to a vertical strip of the simulation area. All cells are emptied.
+     *
+     * @param height Height of the simulation area.
+     * @param left Horizontal position of the left edge of the strip.
+     * @param right Horizontal position of the right edge of the strip.
+     */
+    void resize(int height, double left, double right){
+        columns = Math.max(1, (int)Math.ceil((right-left)/cellSize));
+        rows = Math.max(1, (int)Math.ceil(height/cellSize));
+        this.left = left;
+        top = -height/2.0;
+        head = new int[columns*rows];
+        clear(0);
+    }
+
+    /**
+     * Empties all cells and makes room for the given number of particles.
+     *
+     * @param capacity Number of particles that may be added.
+     */
+    void clear(int capacity){
+        if (next.length < capacity){
+            next = new int[capacity];
+            previous = new int[capacity];
+            cellOf = new int[capacity];
+        }
+        for (int c = 0; c < head.length; c++){
+            head[c] = -1;
+        }
+    }
+
+    /**
+     * Makes room for the given number of particles, keeping those already in the cells.
+     *
+     * @param capacity Number of particles that may be added.
+     */
+    void reserve(int capacity){
+        if (next.length < capacity){
+            next = Arrays.copyOf(next, capacity);
+            previous = Arrays.copyOf(previous, capacity);
+            cellOf = Arrays.copyOf(cellOf, capacity);
+        }
+    }
+
+    /**
+     * Adds particle {@code i} to cell {@code c}.
+     */
+    void add(int i, int c){
+        cellOf[i] = c;
+        previous[i] = -1;
+        next[i] = head[c];
+        if (head[c] != -1){
+            previous[head[c]] = i;
+        }
+        head[c] = i;
+    }
+
+    /**
+     * Moves particle {@code i} from its current cell to cell {@code c}.
+     */
+    void move(int i, int c){
+        if (previous[i] != -1){
+            next[previous[i]] = next[i];
+        } else {
+            head[cellOf[i]] = next[i];
+        }
+        if (next[i] != -1){
+            previous[next[i]] = previous[i];
+        }
+        add(i, c);
+    }
+
+    /**
+     * @return first particle in cell {@code c}, or -1 if the cell is empty.
+     */
+    int first(int c){
+        return head[c];
+    }
+
+    /**
+     * @return particle after particle {@code i} in its cell, or -1 if it is the last one.
+     */
+    int next(int i){
+        return next[i];
+    }
+
+    int cellOf(int i){
+        return cellOf[i];
+    }
+
+    double getCellSize(){
+        return cellSize;
+    }
+
+    int getColumns(){
+        return columns;
+    }
+
+    int getRows(){
+        return rows;
+    }
+
+    /**
+     * @return horizontal position of the left edge of column {@code column}.
+     */
+    double columnLeft(int column){
+        return left+column*cellSize;
+    }
+
+    /**
+     * @return vertical position of the top edge of row {@code row}.
+     */
+    double rowTop(int row){
+        return top+row*cellSize;
+    }
+
+    /**
+     * Finds the cell containing a point. Points outside of the area are placed in the nearest cell.
+     */
+    int cellAt(double x, double y){
+        int column = (int)((x-left)/cellSize);
+        int row = (int)((y-top)/cellSize);
+        if (column < 0) column = 0; else if (column >= columns) column = columns-1;
+        if (row < 0) row = 0; else if (row >= rows) row = rows-1;
+        return row*columns+column;
+    }
+}
@@ -0,0 +1,138 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Chart of the percentage of each species in the left (solid) and right (faded) division over the whole of the simulation.
+ *
+ * Samples are the snapshots published by the simulation, at most one per frame - when the simulation runs as fast as possible,
+ * the updates in between are not sampled, so the lowest and highest percentages shown are those of the snapshots rather than of every update
+ * (see {@code ConcentrationExporter} for every update).
+ * Samples are kept in a {@code ConcentrationHistory}, so the chart never holds more than twice as many points per curve as it has buckets,
+ * however long the simulation runs. The time axis is divided into as many columns as there are buckets; buckets keep their column until
+ * they are merged, so only the part of the chart from the last bucket onwards is drawn again as samples come in, and the whole chart
+ * is only drawn again when buckets are merged (the time axis is then halved) or the history is cleared.
+ *
+ * All methods are to be called on the JavaFX application thread.
+ */
+class ConcentrationChart extends Canvas implements SimulationLimits {
+
+    //Number of buckets of the history - at most two points per bucket are drawn for each curve
+    private static final int buckets = 1024;
+    //Space left around the plot for the labels, in pixels
+    private static final double margin = 24;
+
+    private final ConcentrationHistory history;
+    private final int[] left = new int[2], right = new int[2];
+    //Tick of the last sample added, merges of the history and number of buckets when last drawn (-1 if the chart has to be drawn in full)
+    private long lastTick = -1;
+    private int drawnMerges = -1;
+    private int drawnBuckets;
+
+    ConcentrationChart(double width, double height){
+        super(width, height);
+        history = new ConcentrationHistory(buckets);
+    }
+
+    /**
+     * Adds the percentages of a snapshot of the simulation, if it is newer than the last one added, and brings the chart up to date.
+     */
+    void sample(FrameSnapshot frame){
+        if (frame == null || frame.getTick() == lastTick){
+            return;
+        }
+        lastTick = frame.getTick();
+        for (int s = 0; s < 2; s++){
+            left[s] = frame.getLeftCount(s);
+            right[s] = frame.getRightCount(s);
+        }
+        history.add(frame.getTick(), left, right);
+        draw();
+    }
+
+    /**
+     * Forgets every sample, for a new simulation.
+     */
+    void clear(){
+        history.clear();
+        lastTick = -1;
+        drawnMerges = -1;
+        draw();
+    }
+
+    private void draw(){
+        GraphicsContext g = getGraphicsContext2D();
+        //Left edge of the part of the chart drawn again, and first bucket that may reach into it
+        double from;
+        int first;
+        if (history.getMerges() != drawnMerges){
+            //The time axis changed - draw every bucket again
+            from = 0;
+            first = 0;
+            drawnMerges = history.getMerges();
+        } else {
+            //Buckets before the last one drawn have not changed, but the last one may have. Buckets are narrower than a pixel,
+            //so the chart is cleared from the pixel the last bucket lies in (and the width of a line before it) and drawn again from there,
+            //clipped so that every line in that part is drawn once however many times the bucket changed
+            int last = Math.max(0, drawnBuckets-1);
+            from = Math.floor(x(last))-1;
+            first = last;
+            //The line from a bucket before reaches up to that bucket
+            while (first > 0 && x(first) >= from-1){
+                first--;
+            }
+        }
+        g.save();
+        g.beginPath();
+        g.rect(from, 0, getWidth()-from, getHeight());
+        g.clip();
+        g.clearRect(from, 0, getWidth()-from, getHeight());
+        g.setGlobalAlpha(1);
+        g.setStroke(Color.GRAY);
+        g.setLineWidth(1);
+        g.strokeRect(margin, margin/2, getWidth()-margin*1.5, getHeight()-margin*1.5);
+        g.setFill(Color.GRAY);
+        for (int percent = 0; percent <= 100; percent += 50){
+            g.strokeLine(margin-3, y(percent), margin, y(percent));
+            g.fillText(Integer.toString(percent), 2, y(percent)+4);
+        }
+        g.fillText(history.getSpan()*buckets*TIME_STEP/1000+" s", getWidth()-margin*3, getHeight()-4);
+        for (int b = first; b < history.getBuckets(); b++){
+            for (int s = 0; s < 2; s++){
+                g.setStroke(s == 0 ? PARTICLE_COLOR_1 : PARTICLE_COLOR_2);
+                drawBucket(g, s, b, 1, false);
+                drawBucket(g, s, b, 0.4, true);
+            }
+        }
+        g.restore();
+        drawnBuckets = history.getBuckets();
+    }
+
+    /**
+     * Draws the spread of the percentage of a species in a bucket, and the line to it from the last percentage of the bucket before.
+     *
+     * @param right Whether the percentage in the right division is drawn instead of the left.
+     */
+    private void drawBucket(GraphicsContext g, int particleSpecies, int b, double alpha, boolean right){
+        double min = history.getMin(particleSpecies, b), max = history.getMax(particleSpecies, b);
+        if (Double.isNaN(min)){
+            return;
+        }
+        g.setGlobalAlpha(alpha);
+        double x = x(b);
+        g.strokeLine(x, y(right ? 100-min : min), x, y(right ? 100-max : max));
+        double before = b > 0 ? history.getLast(particleSpecies, b-1) : Double.NaN;
+        if (!Double.isNaN(before)){
+            double last = history.getLast(particleSpecies, b);
+            g.strokeLine(x(b-1), y(right ? 100-before : before), x, y(right ? 100-last : last));
+        }
+    }
+
+    private double x(int bucket){
+        return margin+(getWidth()-margin*1.5)*(bucket+0.5)/buckets;
+    }
+
+    private double y(double percent){
+        return margin/2+(getHeight()-margin*1.5)*(1-percent/100);
+    }
+}
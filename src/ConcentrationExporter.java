@@ -0,0 +1,202 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the number of particles of each species in each division after every update of a simulation into a file, as a time series.
+ *
+ * The simulation thread puts every update into a ring buffer of primitive arrays allocated up front, without ever waiting or allocating,
+ * and a thread of the exporter takes them out in batches and writes them into the file. The simulation thread is the only one moving
+ * the head of the buffer and the exporter the only one moving its tail, so no locking is needed. If writing falls so far behind
+ * that the buffer is full, updates are dropped (and counted) rather than waited for.
+ *
+ * Files ending with .csv are written as text, with a header line and a line per update: tick, time (in seconds at the GUI's time step),
+ * number of particle 1 and 2 in the left and right division, and number of particles that crossed the membrane during the update.
+ * Other files are binary and columnar: a header (magic, version, time step in milliseconds), then a block per batch holding its number of updates
+ * followed by each column of the batch in turn - ticks as longs, the other columns as ints, all big-endian.
+ */
+class ConcentrationExporter implements Runnable, SimulationLimits {
+
+    static final int magic = 0x44435453;
+    static final int version = 1;
+
+    //Number of updates the ring buffer holds (a power of two), and the most updates written at once
+    private static final int capacity = 1 << 16;
+    private static final int batchSize = 4096;
+    //Longest time between two batches (in nanoseconds), however few updates are waiting
+    private static final long drainInterval = 50_000_000;
+
+    private static final String[] columns = {"tick", "time", "left1", "right1", "left2", "right2", "crossings"};
+
+    private final long[] tick = new long[capacity];
+    private final int[] left1 = new int[capacity], right1 = new int[capacity];
+    private final int[] left2 = new int[capacity], right2 = new int[capacity];
+    private final int[] crossings = new int[capacity];
+    //Number of updates put into and taken out of the buffer so far - the head is only moved by the simulation thread, the tail by the writer
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+    private final FileChannel channel;
+    private final boolean csv;
+    private final Thread writer;
+    private volatile boolean closing;
+    //Only changed by the simulation thread
+    private volatile long dropped;
+    private volatile IOException failure;
+
+    //Writer thread only - text of a batch, or bytes of a batch
+    private final Writer text;
+    private final StringBuilder line;
+    private final ByteBuffer block;
+
+    /**
+     * Creates the file and starts the thread writing into it.
+     *
+     * @param file File to write into, replaced if it exists - as text if it ends with .csv, binary otherwise.
+     * @throws IOException if the file can not be created.
+     */
+    ConcentrationExporter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        csv = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        if (csv){
+            text = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+            line = new StringBuilder();
+            block = null;
+            text.write(String.join(",", columns));
+            text.write('\n');
+        } else {
+            text = null;
+            line = null;
+            block = ByteBuffer.allocate(4+batchSize*(8+5*4));
+            block.putInt(magic).putInt(version).putInt(TIME_STEP).flip();
+            while (block.hasRemaining()){
+                channel.write(block);
+            }
+        }
+        writer = new Thread(this, "Concentration exporter");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Puts the state of the engine after an update into the buffer. Only to be called by the simulation thread.
+     * Never waits or allocates - if the buffer is full, the update is dropped.
+     */
+    void record(SimulationEngine engine){
+        long h = head.get();
+        if (h-tail.get() == capacity){
+            dropped++;
+            return;
+        }
+        int slot = (int)(h & (capacity-1));
+        tick[slot] = engine.getTick();
+        left1[slot] = engine.getLeftCount(0);
+        right1[slot] = engine.getRightCount(0);
+        left2[slot] = engine.getLeftCount(1);
+        right2[slot] = engine.getRightCount(1);
+        crossings[slot] = engine.getLastCrossings();
+        //The slot is written before the writer can see it
+        head.lazySet(h+1);
+        if ((h+1) % batchSize == 0){
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * @return number of updates dropped so far because the file could not be written fast enough.
+     * Every update is written with its tick, so the updates dropped show as gaps between the ticks of consecutive updates.
+     */
+    long getDropped(){
+        return dropped;
+    }
+
+    /**
+     * Writes the updates still in the buffer and closes the file.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure != null){
+                throw failure;
+            }
+            if (csv){
+                text.flush();
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true){
+                long t = tail.get();
+                int n = (int)Math.min(head.get()-t, batchSize);
+                if (n == 0){
+                    //Updates put in before closing are all taken out before stopping
+                    if (closing && head.get() == t){
+                        break;
+                    }
+                    LockSupport.parkNanos(this, drainInterval);
+                    continue;
+                }
+                write(t, n);
+                //The slots are only given back once written
+                tail.lazySet(t+n);
+            }
+        } catch (IOException e){
+            failure = e;
+        }
+    }
+
+    /**
+     * Writes {@code n} updates from the buffer, starting with update {@code from}.
+     */
+    private void write(long from, int n) throws IOException {
+        if (csv){
+            for (long k = from; k < from+n; k++){
+                int slot = (int)(k & (capacity-1));
+                line.setLength(0);
+                line.append(tick[slot]).append(',').append(tick[slot]*TIME_STEP/1000.0).append(',')
+                        .append(left1[slot]).append(',').append(right1[slot]).append(',')
+                        .append(left2[slot]).append(',').append(right2[slot]).append(',')
+                        .append(crossings[slot]).append('\n');
+                text.append(line);
+            }
+            text.flush();
+            return;
+        }
+        block.clear();
+        block.putInt(n);
+        for (long k = from; k < from+n; k++){
+            block.putLong(tick[(int)(k & (capacity-1))]);
+        }
+        for (int[] column : new int[][]{left1, right1, left2, right2, crossings}){
+            for (long k = from; k < from+n; k++){
+                block.putInt(column[(int)(k & (capacity-1))]);
+            }
+        }
+        block.flip();
+        while (block.hasRemaining()){
+            channel.write(block);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+/**
+ * Percentage of each species in the left division over the whole of a simulation, in a bounded number of buckets however long it runs.
+ *
+ * Each bucket covers the same number of consecutive updates and keeps the lowest, highest and last percentage of each species in them.
+ * Once every bucket is used, neighbouring buckets are merged in pairs and each bucket covers twice as many updates from then on,
+ * so adding a sample takes constant time on average and a bucket only changes while it is the last one (or when buckets are merged).
+ * Keeping the lowest and highest percentage rather than an average keeps the spikes and the spread of the curve when it is drawn.
+ *
+ * Not thread-safe - samples are to be added and read by a single thread.
+ */
+class ConcentrationHistory {
+
+    private final int capacity;
+    //Number of updates covered by each bucket, and tick of the first sample
+    private long span;
+    private long start;
+    private long lastTick;
+    private int buckets;
+    //Number of times buckets were merged since the history was last cleared
+    private int merges;
+    //[species][bucket] - NaN while the species has no particles in any of the updates of the bucket
+    private final double[][] min, max, last;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param capacity Largest number of buckets (even).
+     */
+    ConcentrationHistory(int capacity){
+        this.capacity = capacity;
+        min = new double[2][capacity];
+        max = new double[2][capacity];
+        last = new double[2][capacity];
+        clear();
+    }
+
+    /**
+     * Forgets every sample.
+     */
+    void clear(){
+        span = 1;
+        start = -1;
+        lastTick = -1;
+        buckets = 0;
+        merges = 0;
+    }
+
+    /**
+     * Adds the percentage of each species in the left division after an update. Starts over if the tick went back (the simulation was set up again).
+     *
+     * @param tick Tick of the sample - samples of the same tick after the first are ignored.
+     * @param left Number of particles of each species in the left division.
+     * @param right Number of particles of each species in the right division.
+     */
+    void add(long tick, int[] left, int[] right){
+        if (tick < lastTick){
+            clear();
+        }
+        if (tick == lastTick){
+            return;
+        }
+        if (start < 0){
+            start = tick;
+        }
+        lastTick = tick;
+        long bucket = (tick-start)/span;
+        while (bucket >= capacity){
+            merge();
+            bucket = (tick-start)/span;
+        }
+        int b = (int)bucket;
+        for (; buckets <= b; buckets++){
+            for (int s = 0; s < 2; s++){
+                min[s][buckets] = max[s][buckets] = last[s][buckets] = Double.NaN;
+            }
+        }
+        for (int s = 0; s < 2; s++){
+            if (left[s]+right[s] == 0){
+                continue;
+            }
+            double percent = 100.0*left[s]/(left[s]+right[s]);
+            //Comparisons with NaN are false, so the first sample of a bucket sets both bounds
+            min[s][b] = !(min[s][b] <= percent) ? percent : min[s][b];
+            max[s][b] = !(max[s][b] >= percent) ? percent : max[s][b];
+            last[s][b] = percent;
+        }
+    }
+
+    /**
+     * Merges neighbouring buckets in pairs, after which each bucket covers twice as many updates.
+     */
+    private void merge(){
+        for (int s = 0; s < 2; s++){
+            for (int b = 0; b < buckets; b += 2){
+                int into = b/2;
+                boolean pair = b+1 < buckets;
+                min[s][into] = pair ? lower(min[s][b], min[s][b+1]) : min[s][b];
+                max[s][into] = pair ? higher(max[s][b], max[s][b+1]) : max[s][b];
+                last[s][into] = pair && !Double.isNaN(last[s][b+1]) ? last[s][b+1] : last[s][b];
+            }
+            Arrays.fill(min[s], (buckets+1)/2, buckets, Double.NaN);
+            Arrays.fill(max[s], (buckets+1)/2, buckets, Double.NaN);
+            Arrays.fill(last[s], (buckets+1)/2, buckets, Double.NaN);
+        }
+        buckets = (buckets+1)/2;
+        span *= 2;
+        merges++;
+    }
+
+    private static double lower(double a, double b){
+        return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.min(a, b);
+    }
+
+    private static double higher(double a, double b){
+        return Double.isNaN(a) ? b : Double.isNaN(b) ? a : Math.max(a, b);
+    }
+
+    int getCapacity(){
+        return capacity;
+    }
+
+    /**
+     * @return number of buckets holding samples.
+     */
+    int getBuckets(){
+        return buckets;
+    }
+
+    /**
+     * @return number of updates covered by each bucket.
+     */
+    long getSpan(){
+        return span;
+    }
+
+    /**
+     * @return number of times buckets were merged since the history was last cleared - every bucket changes when they are.
+     */
+    int getMerges(){
+        return merges;
+    }
+
+    double getMin(int particleSpecies, int bucket){
+        return min[particleSpecies][bucket];
+    }
+
+    double getMax(int particleSpecies, int bucket){
+        return max[particleSpecies][bucket];
+    }
+
+    double getLast(int particleSpecies, int bucket){
+        return last[particleSpecies][bucket];
+    }
+}
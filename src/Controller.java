@@ -1,12 +1,19 @@
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.scene.text.Text;
-import javafx.util.Duration;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.swing.*;
-import java.util.Random;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
 
 /**
  * Created by Catz on 4/13/14.
@@ -15,42 +22,87 @@ import java.util.concurrent.TimeUnit;
  */
 class Controller implements SimulationLimits {
 
-    //Determines the size of the pore. this is NOT a limit of the simulation (despite being static final)
-    // - only arise due to an incomplete implementation of the simulation/controller
-    //In future works, pore size can be varied too
-    private static final int poreHeight = 30;
+    //Largest difference (in %) from equal concentrations that counts as equilibrium, and number of samples (one per second) it is judged over
+    private static final double equilibriumTolerance = 5;
+    private static final int equilibriumWindow = 10;
+    //Number of recorded frames between two keyframes - the most frames decoded to show any frame of a recording
+    private static final int keyframeInterval = 32;
+    //Particles are only shown moving between two states published at most this many publish intervals apart (see SimulationScheduler),
+    //and never less than this long (in nanoseconds), so that any time step is interpolated - a longer gap means the simulation
+    //was paused or fell far behind, and moving particles over the whole gap would leave them lagging
+    private static final int maxInterpolatedIntervals = 3;
+    private static final long minInterpolatedGap = 100_000_000;
 
     //Necessary information of the simulation
     private SimulationArea area;
-    private int height = 200;
-    private int width = 400;
-    private int pores = 3;
-    private double speed = 1;
     private int particle1Size;
     private int particle2Size;
-    private int[] noOfEachParticle;
+    //Settings as last chosen by the user - the engine is only changed through commands submitted to the scheduler
+    private int height, width, pores;
+    private double speed;
+    private boolean eventDriven;
 
-    //To store all components of the simulation
-    private ObjectManager<Particle> allParticles;
-    private ObjectManager<Block> allBlocks;
+    //Headless state of the simulation and the view that shows it
+    private SimulationEngine engine;
+    private SimulationView renderer;
 
     //Reference to GUI components which are to be updated at fixed intervals
     private Text countdownToUpdate;
     private Text particle1InLeft, particle1InRight, particle2InLeft, particle2InRight;
-
-    //For algorithm - updating of objects directly involved in the simulation/diffusion
-    private Timeline timeline;
+    private Text equilibrium;
+    private Text statistics;
+    //Chart of the concentrations over the whole simulation, sampled on every pulse of the GUI
+    private ConcentrationChart chart;
+
+    //Statistics of the updates and of the frames drawn, also readable through JMX
+    private TickMetrics metrics;
+    private ObjectName metricsName;
+
+    //For algorithm - updating of objects directly involved in the simulation/diffusion on a dedicated thread
+    private SimulationScheduler scheduler;
+    //For showing the latest state of the simulation on every pulse of the GUI
+    private AnimationTimer renderTimer;
+
+    //Recording of every update of the simulation into a file, null while not recording
+    private TrajectoryRecorder recorder;
+    //Export of the concentrations after every update of the simulation into a file, null while not exporting
+    private ConcentrationExporter exporter;
+    //Recording shown in place of the simulation, null while the simulation is shown
+    //The position and playing state are only used on the JavaFX application thread, the frame shown is also read by the threads updating the GUI
+    private TrajectoryPlayer replay;
+    private SimulationArea replayArea;
+    private int replayPosition, replayShown;
+    private boolean replayPlaying, resumeAfterReplay;
+    private IntConsumer onReplayPosition;
+    private volatile FrameSnapshot replayFrame;
 
     //For threading - updating of UI components that enhances viewing of simulation
     private ScheduledExecutorService executorService;
+    private ResetAllDirectionThread resetAllDirections;
 
     Controller(int size1, int size2){
-        area = new SimulationArea(height,width);
+        height = 200;
+        width = 400;
+        pores = 3;
+        engine = new SimulationEngine(height, width, pores);
+        speed = engine.getSpeed();
+        renderer = BATCHED_RENDERING ? new BatchedRenderer() : new SimulationRenderer();
+        scheduler = new SimulationScheduler(engine, TIME_STEP);
+        int threads = Runtime.getRuntime().availableProcessors();
+        scheduler.submit(e -> e.setParallelism(threads));
+        scheduler.submit(e -> e.setOffHeap(OFF_HEAP_PARTICLES));
+        metrics = new TickMetrics();
+        scheduler.submit(e -> e.setMetrics(metrics));
+        try {
+            metricsName = new ObjectName("Diffusion:type=TickMetrics");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (JMException e){
+            //Statistics can still be shown on screen
+            metricsName = null;
+        }
+        area = new SimulationArea(height, width);
         particle1Size = size1;
         particle2Size = size2;
-        allParticles = new ObjectManager<>();
-        allBlocks = new ObjectManager<>();
-        noOfEachParticle = new int[2];
     }
 
     /**
@@ -62,27 +114,38 @@ class Controller implements SimulationLimits {
      * @param left2 Text field to show percentage of particle 2 in the left division.
      * @param right1 Text field to show percentage of particle 1 in the right division.
      * @param right2 Text field to show percentage of particle 2 in the right division.
+     * @param equilibrium Text field to show the time the simulation took to reach equilibrium.
+     * @param statistics Text field to show the statistics of the simulation, while they are recorded.
+     * @param chart Chart to show the concentrations over time.
      */
-    void setToUpdate(Text countdown, Text left1, Text left2, Text right1, Text right2){
+    void setToUpdate(Text countdown, Text left1, Text left2, Text right1, Text right2, Text equilibrium, Text statistics, ConcentrationChart chart){
         countdownToUpdate=countdown;
         particle1InLeft = left1;
         particle1InRight = right1;
         particle2InLeft = left2;
         particle2InRight = right2;
+        this.equilibrium = equilibrium;
+        this.statistics = statistics;
+        this.chart = chart;
     }
 
     /**
      * Clears all information belonging to the previous simulation.
      */
     private void resetComponents(){
-        area.getChildren().clear();
+        //A recording or an export only holds a single simulation, so it is stopped along with it
+        stopRecordingQuietly();
+        stopExportQuietly();
+        closeReplay();
+        scheduler.stop();
+        //The simulation thread is stopped, so the memory holding the particles can be freed directly - the next simulation holds them anew
+        engine.release();
+        if (renderTimer != null){
+            renderTimer.stop();
+        }
         if (executorService!= null){
             executorService.shutdown();
         }
-        allParticles.clearAll();
-        allBlocks.clearAll();
-        noOfEachParticle[0] = 0;
-        noOfEachParticle[1] = 0;
     }
 
     /**
@@ -90,136 +153,183 @@ class Controller implements SimulationLimits {
      * This method is to be called when the user closes the application.
      */
     void clearUp(){
+        stopRecordingQuietly();
+        stopExportQuietly();
+        closeReplay();
+        scheduler.stop();
+        //The simulation thread is stopped for good, so the engine can be changed directly
+        engine.setParallelism(1);
+        engine.release();
         if (executorService!= null){
             executorService.shutdown();
         }
+        if (metricsName != null){
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e){
+                //Nothing left to clear up
+            }
+        }
     }
 
     /**
      * Sets up a new simulation.
      */
     void initializeSimulationArea(){
+        //Clear all particles and build the membrane for the user's desired area and pore number
+        int height = this.height, width = this.width, pores = this.pores;
+        initializeSimulationArea(e -> {
+            e.setDimensions(height, width);
+            e.setPores(pores);
+            e.initialize();
+        }, RESET_DELAY);
+    }
+
+    /**
+     * Sets up a simulation and starts running it.
+     *
+     * @param setUp Command setting up the engine, applied before the first update.
+     * @param countdown Countdown till the first direction reset.
+     */
+    private void initializeSimulationArea(Consumer<SimulationEngine> setUp, int countdown){
         //Clear previous data that is not required for the new simulation
         resetComponents();
 
-        //Add blocks to the new simulation to create the user's desired pore number
-        //If user wishes for there to be no pores, add a block which covers the whole of the mid-region
-        if (pores == 0){
-            Block temp = new Block(height);
-            area.getChildren().add(temp);
-            allBlocks.add(temp);
-        //If user desires a single pore, add two blocks to the extremes which leaves a space between them
-        } else if (pores == 1){
-            Block temp = new Block((height-poreHeight)/2);
-            temp.setTranslateY(height/2-(height-poreHeight)/4);
-            Block temp2 = new Block((height-poreHeight)/2);
-            temp2.setTranslateY(-height/2+(height-poreHeight)/4);
-            area.getChildren().addAll(temp,temp2);
-            allBlocks.add(temp);
-            allBlocks.add(temp2);
-        //If user desires more than one pore, make necessary calculations of block height and their position such that the two extremes are pores
-        //and any remaining desired pores are formed between two subsequent blocks
-        } else {
-            double blockHeight = (height-pores*poreHeight)/(pores-1);
-            for (int i = 1; i < pores; i++){
-                Block temp = new Block(blockHeight);
-                temp.setTranslateY(0-height/2+blockHeight/2+poreHeight*i+blockHeight*(i-1));
-                area.getChildren().add(temp);
-                allBlocks.add(temp);
-            }
+        //Set up the engine, then show it in the area
+        scheduler.submit(setUp);
+        renderer.rebuild(area);
+        if (chart != null){
+            chart.clear();
         }
 
-        //Initializes and starts a nonstop Timeline to animate particles involved in the simulation
-        timeline = new Timeline();
-        timeline.setCycleCount(Timeline.INDEFINITE);
-        //Defines a keyframe which makes necessary checks and updates the particles in 20 milliseconds time via an EventHandler
-        //There is no keyvalue - simulation is not supposed to work towards any target value - diffusion is purely due to randomized motion
-        KeyFrame keyFrame = new KeyFrame(Duration.millis(20), actionEvent -> {
-            updateParticles();
-            checkCollisions();
-        });
-        timeline.getKeyFrames().add(keyFrame);
-        timeline.play();
+        //Starts advancing the simulation on its own thread at a fixed time step
+        //There is no target value - simulation is not supposed to work towards any target value - diffusion is purely due to randomized motion
+        scheduler.start();
+        //Shows the latest state published by the simulation thread whenever the GUI is about to be drawn
+        //If the simulation published several states since the last pulse, only the latest is shown
+        //Particles are moved from where they were in the state published before over the time between the two states, so they move at every pulse
+        //however fast the display refreshes, and nothing is allocated on the way
+        //Both states are held while they are shown, and given up once the next state is shown, so that the simulation thread can reuse them
+        renderTimer = new AnimationTimer() {
+            private FrameSnapshot previousFrame, lastFrame;
+            //Whether the latest state is shown as it is, after which nothing changes until another state is published
+            private boolean settled;
+
+            @Override
+            public void handle(long now) {
+                FrameSnapshot frame = replay != null ? nextReplayFrame() : scheduler.acquireLatestFrame();
+                if (frame == lastFrame){
+                    //Already held since it was first shown
+                    if (frame != null){
+                        frame.release();
+                    }
+                } else {
+                    if (previousFrame != null){
+                        previousFrame.release();
+                    }
+                    previousFrame = lastFrame;
+                    lastFrame = frame;
+                    settled = false;
+                    //The chart follows the simulation only, and only draws what changed since the last sample
+                    if (chart != null && replay == null){
+                        chart.sample(frame);
+                    }
+                }
+                if (settled){
+                    return;
+                }
+                double alpha = 1;
+                long gap = previousFrame == null ? 0 : frame.getTime()-previousFrame.getTime();
+                //States further apart were published around a pause or a command, which is shown straight away
+                long maxGap = Math.max(minInterpolatedGap, maxInterpolatedIntervals*scheduler.getPublishInterval());
+                if (INTERPOLATED_RENDERING && replay == null && gap > 0 && gap <= maxGap){
+                    alpha = Math.max(0, Math.min(1, (double)(now-frame.getTime())/gap));
+                }
+                boolean timed = metrics.isEnabled();
+                long start = timed ? System.nanoTime() : 0;
+                renderer.render(previousFrame, frame, alpha);
+                if (timed){
+                    metrics.record(TickMetrics.render, System.nanoTime()-start);
+                }
+                settled = alpha == 1;
+            }
+
+            @Override
+            public void stop() {
+                super.stop();
+                if (previousFrame != null){
+                    previousFrame.release();
+                }
+                if (lastFrame != null){
+                    lastFrame.release();
+                }
+                previousFrame = null;
+                lastFrame = null;
+            }
+        };
+        renderTimer.start();
 
-        //Initializes a threading service which allows two threads to run concurrently
+        //Initializes a threading service which allows three threads to run concurrently
         //Start threads which are set up with relevant references to handle and transfer required data to the GUI to be viewable by users
         //The run method of these threads are invoked immediately upon run and subsequently at 1s intervals
-        executorService = Executors.newScheduledThreadPool(2);
-        executorService.scheduleWithFixedDelay(new ResetAllDirectionThread(allParticles, countdownToUpdate), 0, 1, TimeUnit.SECONDS);
-        executorService.scheduleWithFixedDelay(new UpdateConcentrationThread(allParticles, particle1InLeft,
-                particle1InRight, particle2InLeft, particle2InRight), 0, 1, TimeUnit.SECONDS);
+        executorService = Executors.newScheduledThreadPool(3);
+        resetAllDirections = new ResetAllDirectionThread(scheduler, countdownToUpdate, countdown);
+        executorService.scheduleWithFixedDelay(resetAllDirections, 0, 1, TimeUnit.SECONDS);
+        executorService.scheduleWithFixedDelay(new UpdateConcentrationThread(this::acquireShownFrame, particle1InLeft,
+                particle1InRight, particle2InLeft, particle2InRight, equilibrium), 0, 1, TimeUnit.SECONDS);
+        executorService.scheduleWithFixedDelay(new UpdateStatisticsThread(metrics, statistics), 0, 1, TimeUnit.SECONDS);
     }
 
-    //
+    /**
+     * Adds new particles. The particles are added by the simulation thread before its next update.
+     *
+     * @param particleNumber Particle number (1 or 2).
+     * @param hint Left (-1) or Right (1).
+     * @param number Number of particles to add.
+     * @return number of particles actually added once they are - less than {@code number} if the simulation reached the maximum number
+     * of particles or if there is no space left in the division.
+     */
+    CompletableFuture<Integer> addParticles(int particleNumber, int hint, int number){
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        int species = particleNumber-1;
+        int size = particleNumber == 1 ? particle1Size : particle2Size;
+        scheduler.submit(e -> {
+            //Never go over the maximum number of particles
+            //The engine tries a few random positions for each particle and only adds it if one is not close to any other particles
+            int added = e.addParticles(species, size, hint, Math.min(number, MAX_PARTICLES-e.getCount()));
+            //Publish the new particles straight away (so that they are shown even if the simulation is paused and counted by getParticleCount())
+            scheduler.publish();
+            result.complete(added);
+        });
+        return result;
+    }
 
     /**
-     * Adds a new particle.
+     * Removes particles, highest index first. The particles are removed by the simulation thread before its next update.
      *
      * @param particleNumber Particle number (1 or 2).
      * @param hint Left (-1) or Right (1).
-     * @throws Exception if simulation reached the maximum number of particles.
-     */
-    void addParticle(int particleNumber, int hint) throws Exception {
-        //If simulation reached the maximum number of particles, throw an Exception to be handled by the GUI class through showing user error message
-        if (allParticles.getAll().size()>=MAX_PARTICLES){
-            throw new Exception("Max Particles");
-        //Simulation is not at its maximum number of particles
-        } else {
-            Atom newAtom;
-            int translateX, translateY;
-            //Create an atom object with particle 1's definitions
-            if (particleNumber == 1){
-                newAtom = new Atom(PARTICLE_COLOR_1,particle1Size);
-            //Create an atom object with particle 2's definitions
-            } else {
-                newAtom = new Atom(PARTICLE_COLOR_2,particle2Size);
-            }
-            //Obtain random positions to place the new atom and check that the position is not occupied and is not too close to any other particles
-            //Repeat 4 times if constantly unsuccessful. If still unsuccessful, the particle will not be added since the simulation area is too crowded
-            boolean check = false;
-            for (int i = 0; i < 5; i++){
-                //Get random positions for the new atom at the side where it is being added into
-                translateX = hint * (new Random().nextInt(width/2-2*(int)newAtom.getRadius())+(int)newAtom.getRadius());
-                if (new Random().nextInt(2)==0){
-                    translateY = -1 * (new Random().nextInt(height/2-2*(int)newAtom.getRadius())+(int)newAtom.getRadius());
-                } else {
-                    translateY = new Random().nextInt(height/2-2*(int)newAtom.getRadius())+(int)newAtom.getRadius();
-                }
+     * @param number Number of particles to remove.
+     * @return number of particles actually removed once they are - less than {@code number} if there are not as many in the division.
+     */
+    CompletableFuture<Integer> removeParticles(int particleNumber, int hint, int number){
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        scheduler.submit(e -> {
+            int removed = e.removeParticles(particleNumber-1, hint, number);
+            scheduler.publish();
+            result.complete(removed);
+        });
+        return result;
+    }
 
-                //Set the atom's position properties to the random values
-                newAtom.setTranslateY(translateY);
-                newAtom.setTranslateX(translateX);
-
-                //Check that this position is not close to any other existing particles
-                check = true;
-                for (int j =0 ; j < allParticles.getNumber();j++){
-                    //if it is close to a particle, set check to false and proceed to regenerate a new position
-                    if (newAtom.closeTo(allParticles.getAll().get(j))){
-                        check = false;
-                        break;
-                    }
-                }
-                //check = true means that the position is not close to any other particles
-                // - there is no need for new values - break out of the generation loop
-                if (check){
-                    break;
-                }
-            }
-            //If a position is accepted, the new atom located at the position is added to the simulation area
-            // and values and storage of all particles are updated
-            if (check){
-                area.getChildren().add(newAtom);
-                allParticles.add(newAtom);
-                if (particleNumber == 1){
-                    noOfEachParticle[0]++;
-                } else {
-                    noOfEachParticle[1]++;
-                }
-            //If none of the 5 positions generated are accepted, throw an Exception to be handled by the GUI class through showing user error message
-            } else {
-                throw new Exception("No space");
-            }
-        }
+    /**
+     * @return number of particles in the latest published state of the simulation.
+     */
+    int getParticleCount(){
+        FrameSnapshot frame = scheduler.acquireLatestFrame();
+        int count = frame.getCount();
+        frame.release();
+        return count;
     }
 
     /**
@@ -230,20 +340,11 @@ class Controller implements SimulationLimits {
      * @return new area if successful and existing area if not.
      */
     SimulationArea getNewSimulationArea(int height, int width){
-        //If more than one pore is desired, check that the new values of height and width is able to handle the previously set pore number
-        if (pores != 1 && pores != 0){
-            double blockHeight = (height-pores*poreHeight)/(pores-1);
-            if (blockHeight <= 0){ //means that pores*poreHeight is bigger than height thus the newly desired height is invalid
-                JOptionPane.showMessageDialog(null,
-                        "Height of simulation area is too small to contain so many pores!", "Error",JOptionPane.ERROR_MESSAGE);
-            } else { //if height is valid, change properties as per recorded by the controller and set up the new area
-                this.height = height;
-                this.width = width;
-                area = new SimulationArea(height,width);
-                initializeSimulationArea();
-            }
-        //If one or less pore is desired, all values for height and width is able to handle pore number and no checking is required
-        } else { //set up the new area
+        //Check that the new values of height and width is able to handle the previously set pore number
+        if (!SimulationEngine.canContainPores(height, pores)){
+            JOptionPane.showMessageDialog(null,
+                    "Height of simulation area is too small to contain so many pores!", "Error",JOptionPane.ERROR_MESSAGE);
+        } else { //if height is valid, change properties to be passed on to the engine and set up the new area
             this.height = height;
             this.width = width;
             area = new SimulationArea(height,width);
@@ -260,125 +361,59 @@ class Controller implements SimulationLimits {
      * @return new area if successful and existing area if not.
      */
     SimulationArea getNewSimulationArea(int pores){
-        //If more than one pore is desired, check that the existing values of height and width is able to handle the new desired pore number
-        if (pores != 1 && pores != 0){
-            double blockHeight = (height-pores*poreHeight)/(pores-1);
-            if (blockHeight <= 0){ //means that pores*poreHeight is bigger than height thus the newly desired pore is too large for the simulation area
-                JOptionPane.showMessageDialog(null,
-                        "Height of simulation area is too small to contain so many pores!","Error",JOptionPane.ERROR_MESSAGE);
-            } else { //if pore number is acceptable, change pore number recorded by the controller and set up the new area
-                this.pores = pores;
-                initializeSimulationArea();
-            }
-        //If one or less pore is desired, all values for height and width is able to handle pore number and no checking is required
-        } else { //set up the new area
+        //Check that the existing values of height and width is able to handle the new desired pore number
+        if (!SimulationEngine.canContainPores(height, pores)){
+            JOptionPane.showMessageDialog(null,
+                    "Height of simulation area is too small to contain so many pores!","Error",JOptionPane.ERROR_MESSAGE);
+        } else { //if pore number is acceptable, change pore number to be passed on to the engine and set up the new area
             this.pores = pores;
             initializeSimulationArea();
         }
         return getSimulationArea();
     }
 
+    void setSpeed(double speed){
+        this.speed = speed;
+        scheduler.submit(e -> e.setSpeed(speed));
+    }
+
     /**
-     * Update the positions of all particles in the simulation depending on the speed set
-     * (speed multiplies the number of units that the particle is supposed to translate)
-     * Also updates the countdown value for the min.time needed for collision with last collided particle
+     * Changes the time between two updates of the simulation.
+     * Particles are still shown moving smoothly at any time step, between states up to a few time steps apart (see {@code INTERPOLATED_RENDERING}).
+     *
+     * @param timeStep Time step in milliseconds, or 0 to run the simulation as fast as possible.
      */
-    private void updateParticles(){
-        for (int i =0; i < allParticles.getNumber();i++){
-            allParticles.getAll().get(i).update(speed);
-            allParticles.getAll().get(i).passedTime();
-        }
+    void setTimeStep(double timeStep){
+        scheduler.setTimeStep(timeStep);
+    }
+
+    double getTimeStep(){
+        return scheduler.getTimeStep();
     }
 
     /**
-     * Checks collisions of all particles in the simulation with other components in the simulation.
+     * Switches between checking collisions once per update duration and handling them at the exact time they happen.
+     *
+     * @param eventDriven Whether collisions are to be handled at the exact time they happen.
      */
-    private void checkCollisions(){
-        //Check collisions between particles
-        for (int i = 0; i < allParticles.getNumber();i++){
-            for (int j = 0; j < allParticles.getNumber();j++){
-                if (i==j) continue; //Particle cannot collide with itself!
-                if (allParticles.getAll().get(i).collide(allParticles.getAll().get(j))){
-                    allParticles.getAll().get(i).collidedWith(allParticles.getAll().get(j));
-                }
-            }
-        }
-
-        //Check collisions between particle and boundary of simulation area
-        for (int i =0; i < allParticles.getNumber();i++){
-            //if the X property of the particle + its radius is over the X property of the right boundary, the particle collided with the right boundary
-            //if the particle is still moving to the right, flip its X translation per time period to go towards the left instead
-            //also, if the X property of the particle - its radius is smaller than the X property of the left boundary, the particle collided with the left boundary
-            //if the particle is still moving to the left, flip its X translation per time period to go towards the right instead
-            if ((allParticles.getAll().get(i).getTranslateX() >= width/2-allParticles.getAll().get(i).getRadius() &&
-                    allParticles.getAll().get(i).getVX()>0)||
-                    (allParticles.getAll().get(i).getTranslateX() <= -width/2+allParticles.getAll().get(i).getRadius())&&
-                            allParticles.getAll().get(i).getVX()<0){
-                allParticles.getAll().get(i).reflectX();
-            }
-            //if the Y property of the particle + its radius is over the Y property of the top boundary, the particle collided with the top boundary
-            //if the particle is still moving upwards, flip its Y translation per time period to go downwards instead
-            //also, if the Y property of the particle - its radius is smaller than the Y property of the bottom boundary, the particle collided with the bottom boundary
-            //if the particle is still moving downwards, flip its Y translation per time period to go upwards instead
-            if ((allParticles.getAll().get(i).getTranslateY() >= height/2-allParticles.getAll().get(i).getRadius()&&
-                    allParticles.getAll().get(i).getVY()>0)||
-                    (allParticles.getAll().get(i).getTranslateY() <= -height/2+allParticles.getAll().get(i).getRadius())&&
-                            allParticles.getAll().get(i).getVY()<0){
-                allParticles.getAll().get(i).reflectY();
-            }
-        }
+    void setEventDriven(boolean eventDriven){
+        this.eventDriven = eventDriven;
+        scheduler.submit(e -> e.setEventDriven(eventDriven));
+    }
 
-        double blockHeight;
-        //Obtain height of each block based on the number of pores and formulas derived previously
-        if (pores == 0){
-            blockHeight = height;
-        } else if (pores == 1){
-            blockHeight = (height-poreHeight)/2;
-        } else {
-            blockHeight = (height-pores*poreHeight)/(pores-1);
-        }
+    boolean isEventDriven(){
+        return eventDriven;
+    }
 
-        //Check collision between particles and blocks in the equator of the simulation area
-        for (int i = 0; i < allParticles.getNumber();i++){
-            //Check if the particle is within the mid portion such that the particle's border is able to touch/intersect a block (with fixed width 10)
-            //that exists in the same Y coordinate as the particle
-            if (allParticles.getAll().get(i).getTranslateX()>=-5-allParticles.getAll().get(i).getRadius() &&
-                    allParticles.getAll().get(i).getTranslateX()<=5+allParticles.getAll().get(i).getRadius()){
-                //particle is within mid portion
-                //Check if there is a block that is situated such that the particle/its borders is touching/intersecting the block
-                //In other words, check that the particle is not between a pore in the mid portion
-                for (int j = 0; j < allBlocks.getNumber();j++){
-                    if (allParticles.getAll().get(i).getTranslateY() <
-                            allBlocks.getAll().get(j).getTranslateY()+blockHeight/2+allParticles.getAll().get(i).getRadius() &&
-                            allParticles.getAll().get(i).getTranslateY() >
-                                    allBlocks.getAll().get(j).getTranslateY()-blockHeight/2-allParticles.getAll().get(i).getRadius()){
-                        //particle collides with a block
-                        //if the particle is within the left division and is traveling to the right, it bounces off the block and travels back towards the left
-                        if (allParticles.getAll().get(i).getTranslateX()<0){
-                            if (allParticles.getAll().get(i).getVX()>0){
-                                allParticles.getAll().get(i).reflectX();
-                            }
-                        //if the particle is within the right division and is travelling to the left, it bounces off the block and travels back towards the right
-                        } else {
-                            if (allParticles.getAll().get(i).getVX()<0){
-                                allParticles.getAll().get(i).reflectX();
-                            }
-                        }
-                        //if the particle is located very close to the equator and is colliding with the block, it is assumed that it is right above/below the block
-                        //since it would have been reflected away otherwise (it cannot exist between the blocks)
-                        //as such, it collides with the top/bottom boundary of the block and thus bounces off with the inverse of its Y translation
-                        if (allParticles.getAll().get(i).getTranslateX()>-5&& allParticles.getAll().get(i).getTranslateX()<5){
-                            allParticles.getAll().get(i).reflectY();
-                        }
-                        break;
-                    }
-                }
-            }
-        }
+    /**
+     * Starts or stops recording statistics of the simulation. Nothing is timed or counted while they are not recorded.
+     */
+    void setMetricsEnabled(boolean enabled){
+        metrics.setEnabled(enabled);
     }
 
-    void setSpeed(double speed){
-        this.speed = speed;
+    boolean isMetricsEnabled(){
+        return metrics.isEnabled();
     }
 
     SimulationArea getSimulationArea(){
@@ -405,33 +440,286 @@ class Controller implements SimulationLimits {
      * Stops the movement of particles temporarily.
      */
     void pauseSimulation(){
-        timeline.pause();
+        scheduler.pause();
     }
 
     /**
-     * Starts the movement of particles after stopping it.
+     * Starts the movement of particles after stopping it. The simulation stays paused while a recording is shown.
      */
     void playSimulation(){
-        timeline.play();
+        if (replay == null){
+            scheduler.resume();
+        }
+    }
+
+    /**
+     * Saves the complete state of the simulation, so that it can be resumed later by {@link #restoreSimulation(File)}.
+     * The state is saved by the simulation thread between two updates.
+     *
+     * @param file File to save into.
+     * @return completed once the state is saved, or exceptionally with the {@code IOException} if the file could not be written.
+     */
+    CompletableFuture<Void> saveSimulation(File file){
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        ResetAllDirectionThread resetAllDirections = this.resetAllDirections;
+        scheduler.submit(e -> {
+            try {
+                SimulationCheckpoint.write(file.toPath(), e, resetAllDirections.getCountdown());
+                result.complete(null);
+            } catch (IOException ex){
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Replaces the simulation by one saved by {@link #saveSimulation(File)}, with all its settings, and resumes it where it was saved.
+     *
+     * @param file File to restore from.
+     * @return new area of the size of the saved simulation.
+     * @throws IOException if the file can not be read or does not hold a saved simulation.
+     */
+    SimulationArea restoreSimulation(File file) throws IOException {
+        SimulationCheckpoint checkpoint = SimulationCheckpoint.read(file.toPath());
+        height = checkpoint.getHeight();
+        width = checkpoint.getWidth();
+        pores = checkpoint.getPores();
+        speed = checkpoint.getSpeed();
+        eventDriven = checkpoint.isEventDriven();
+        area = new SimulationArea(height, width);
+        //The countdown goes down as soon as the simulation starts, so it starts from one more than was shown when saved
+        initializeSimulationArea(checkpoint::restore, checkpoint.getCountdown()+1);
+        return area;
+    }
+
+    /**
+     * Starts recording every update of the simulation into a file, replacing any recording in progress.
+     * Recording stops when the simulation is set up again.
+     *
+     * @param file File to record into.
+     * @throws IOException if the file can not be created.
+     */
+    void startRecording(File file) throws IOException {
+        stopRecording();
+        recorder = new TrajectoryRecorder(file.toPath(), scheduler.acquireLatestFrame(), keyframeInterval);
+        scheduler.setRecorder(recorder);
+    }
+
+    /**
+     * Stops recording and completes the file, if recording.
+     *
+     * @return number of updates left out of the recording because the file could not be written fast enough (0 if not recording).
+     * @throws IOException if the file could not be written.
+     */
+    long stopRecording() throws IOException {
+        if (recorder == null){
+            return 0;
+        }
+        TrajectoryRecorder recorder = this.recorder;
+        this.recorder = null;
+        scheduler.setRecorder(null);
+        recorder.close();
+        return recorder.getDropped();
+    }
+
+    boolean isRecording(){
+        return recorder != null;
+    }
+
+    private void stopRecordingQuietly(){
+        try {
+            stopRecording();
+        } catch (IOException e){
+            JOptionPane.showMessageDialog(null, "Recording could not be completed!", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Starts exporting the concentrations after every update of the simulation into a file, replacing any export in progress.
+     * Exporting stops when the simulation is set up again.
+     *
+     * @param file File to export into - CSV if it ends with .csv, binary otherwise.
+     * @throws IOException if the file can not be created.
+     */
+    void startExport(File file) throws IOException {
+        stopExport();
+        exporter = new ConcentrationExporter(file.toPath());
+        scheduler.setExporter(exporter);
+    }
+
+    /**
+     * Stops exporting and completes the file, if exporting.
+     *
+     * @return number of updates left out of the file because it could not be written fast enough (0 if not exporting).
+     * @throws IOException if the file could not be written.
+     */
+    long stopExport() throws IOException {
+        if (exporter == null){
+            return 0;
+        }
+        ConcentrationExporter exporter = this.exporter;
+        this.exporter = null;
+        scheduler.setExporter(null);
+        exporter.close();
+        return exporter.getDropped();
+    }
+
+    boolean isExporting(){
+        return exporter != null;
+    }
+
+    private void stopExportQuietly(){
+        try {
+            stopExport();
+        } catch (IOException e){
+            JOptionPane.showMessageDialog(null, "Export could not be completed!", "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Pauses the simulation and shows a recording in its place, from its first frame.
+     *
+     * @param file File recorded by {@link #startRecording(File)}.
+     * @param onPosition Told the frame shown whenever the recording moves on while playing.
+     * @return area of the size of the recording, showing it.
+     * @throws IOException if the file can not be read or holds no frames.
+     */
+    SimulationArea openReplay(File file, IntConsumer onPosition) throws IOException {
+        TrajectoryPlayer player = new TrajectoryPlayer(file.toPath());
+        FrameSnapshot first;
+        try {
+            if (player.getFrameCount() == 0){
+                throw new IOException("Recording holds no frames: "+file);
+            }
+            first = player.frameAt(0);
+        } catch (IOException e){
+            player.close();
+            throw e;
+        }
+        closeReplay();
+        resumeAfterReplay = !scheduler.isPaused();
+        scheduler.pause();
+        replay = player;
+        replayArea = new SimulationArea(first.getHeight(), first.getWidth());
+        replayPosition = 0;
+        replayShown = 0;
+        replayFrame = first;
+        replayPlaying = false;
+        onReplayPosition = onPosition;
+        renderer.rebuild(replayArea);
+        return replayArea;
+    }
+
+    /**
+     * Stops showing the recording, if one is shown, and goes back to showing the simulation in its own area - running again unless it was paused.
+     */
+    void closeReplay(){
+        if (replay == null){
+            return;
+        }
+        try {
+            replay.close();
+        } catch (IOException e){
+            //Only read from, nothing is lost
+        }
+        replay = null;
+        replayArea = null;
+        replayFrame = null;
+        renderer.rebuild(area);
+        if (resumeAfterReplay){
+            scheduler.resume();
+        }
+    }
+
+    boolean isReplaying(){
+        return replay != null;
+    }
+
+    /**
+     * @return area showing the recording, or null while the simulation is shown.
+     */
+    SimulationArea getReplayArea(){
+        return replayArea;
+    }
+
+    /**
+     * @return number of frames of the recording shown.
+     */
+    int getReplayLength(){
+        return replay.getFrameCount();
+    }
+
+    /**
+     * Shows a frame of the recording from the next pulse on.
+     *
+     * @param position Index of the frame.
+     */
+    void seekReplay(int position){
+        replayPosition = Math.max(0, Math.min(replay.getFrameCount()-1, position));
+    }
+
+    /**
+     * Starts or stops moving on by one frame of the recording on every pulse.
+     */
+    void setReplayPlaying(boolean playing){
+        replayPlaying = playing;
+    }
+
+    boolean isReplayPlaying(){
+        return replayPlaying;
+    }
+
+    /**
+     * Moves the recording on if it is playing and decodes the frame to show.
+     *
+     * @return frame of the recording to show.
+     */
+    private FrameSnapshot nextReplayFrame(){
+        if (replayPlaying && replayPosition < replay.getFrameCount()-1){
+            replayPosition++;
+            onReplayPosition.accept(replayPosition);
+        }
+        if (replayPosition != replayShown){
+            replayShown = replayPosition;
+            try {
+                replayFrame = replay.frameAt(replayPosition);
+            } catch (IOException e){
+                //Keep showing the last frame that could be read
+                replayPlaying = false;
+                JOptionPane.showMessageDialog(null, "Recording could not be read!", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+        return replayFrame;
+    }
+
+    /**
+     * @return frame of the recording shown, or else the latest published state of the simulation - to be released once read.
+     */
+    private FrameSnapshot acquireShownFrame(){
+        FrameSnapshot frame = replayFrame;
+        return frame != null ? frame : scheduler.acquireLatestFrame();
     }
 
     /**
      * Runnable which implements a countdown system and gives all existing particles new translation values whenever the count reaches 0.
      */
     public class ResetAllDirectionThread implements Runnable,SimulationLimits{
-        private ObjectManager<Particle> target;
-        private int countdown;
+        private SimulationScheduler target;
+        //Read by the simulation thread when the simulation is saved
+        private volatile int countdown;
         private Text toUpdateCountdown;
 
         /**
          * Constructs a new instance.
          *
-         * @param o ObjectManager with all the particles.
+         * @param s Scheduler of the engine with all the particles.
          * @param t Text to display countdown/time left.
+         * @param c Countdown till the first reset.
          */
-        ResetAllDirectionThread(ObjectManager<Particle> o, Text t){
-            target = o;
-            countdown = RESET_DELAY;
+        ResetAllDirectionThread(SimulationScheduler s, Text t, int c){
+            target = s;
+            countdown = c;
             toUpdateCountdown = t;
         }
 
@@ -439,12 +727,16 @@ class Controller implements SimulationLimits {
         public void run() {
             countdown--;
             if (countdown==0){
-                for (int i = 0; i < target.getNumber();i++){
-                    target.getAll().get(i).setDirection();
-                }
+                target.submit(SimulationEngine::resetAllDirections);
                 countdown=RESET_RATE;
             }
-            toUpdateCountdown.setText(countdown+"");
+            //Text objects are part of the GUI, so they are only changed on the JavaFX application thread
+            String text = countdown+"";
+            Platform.runLater(() -> toUpdateCountdown.setText(text));
+        }
+
+        int getCountdown(){
+            return countdown;
         }
     }
 
@@ -453,21 +745,26 @@ class Controller implements SimulationLimits {
      */
     public class UpdateConcentrationThread implements Runnable{
 
-        private ObjectManager<Particle> allParticles;
+        private Supplier<FrameSnapshot> frames;
         private Text left1, right1;
         private Text left2, right2;
+        private Text equilibrium;
+        private EquilibriumDetector detector;
 
         /**
          * Constructs a new instance.
          *
-         * @param o ObjectManager with all the particles.
+         * @param f Source of the snapshot of all the particles shown, each released once read.
          * @param left1 Text to display percentage of particle 1 in the left division.
          * @param right1 Text to display percentage of particle 1 in the right division.
          * @param left2 Text to display percentage of particle 2 in the left division.
          * @param right2 Text to display percentage of particle 2 in the right division.
+         * @param equilibrium Text to display the time taken to reach equilibrium.
          */
-        UpdateConcentrationThread(ObjectManager<Particle> o, Text left1, Text right1, Text left2, Text right2){
-            allParticles = o;
+        UpdateConcentrationThread(Supplier<FrameSnapshot> f, Text left1, Text right1, Text left2, Text right2, Text equilibrium){
+            frames = f;
+            this.equilibrium = equilibrium;
+            detector = new EquilibriumDetector(equilibriumTolerance, equilibriumWindow);
             this.left1=left1;
             this.left2=left2;
             this.right1=right1;
@@ -475,29 +772,27 @@ class Controller implements SimulationLimits {
         }
         @Override
         public void run() {
-            int l1=0,r1=0,l2=0,r2=0;
-            //Obtain the total number of each particles in each division
-            for (int i =0 ; i < allParticles.getNumber();i++){
-                //Since color of particle is unique to the particle number, color is used to check for whether the particle belongs to grp 1 or 2
-                if (allParticles.getAll().get(i).getFill()==PARTICLE_COLOR_1){
-                    if (allParticles.getAll().get(i).getTranslateX()>=0){ // check if particle is at right
-                        r1++;
-                    } else { // left
-                        l1++;
-                    }
-                } else if (allParticles.getAll().get(i).getFill()==PARTICLE_COLOR_2){
-                    if (allParticles.getAll().get(i).getTranslateX()>=0){ //check if particle is at right
-                        r2++;
-                    } else { // left
-                        l2++;
-                    }
-                }
-            }
+            //Obtain the total number of each particles in each division from the state shown
+            //These are counted by the engine as particles cross the membrane, so no particle needs to be looked at here
+            FrameSnapshot frame = frames.get();
+            int l1 = frame.getLeftCount(0), r1 = frame.getRightCount(0);
+            int l2 = frame.getLeftCount(1), r2 = frame.getRightCount(1);
+            long tick = frame.getTick();
+            frame.release();
+            //Follow the concentrations once per second instead of having the user watch them until they look stable
+            //Time is shown as simulated at the fixed time step, whatever the pace the simulation is actually run at
+            detector.sample(tick, new int[]{l1, l2}, new int[]{r1, r2});
+            long reached = detector.getEquilibriumTick();
+            String time = reached < 0 ? "-" : String.format("%.0fs", reached*TIME_STEP/1000.0);
             //Project concentration in % of each particle in each division (left and right) onto the Text objects
             //If none of a certain particle exists, conc of both divisions will be shown as 0%
             //These Text objects are part of the GUI implemented in Main, therefore changes to the values will be shown in the GUI
-            setPercentageText(l1, r1, left1, right1);
-            setPercentageText(l2, r2, left2, right2);
+            //and they are only changed on the JavaFX application thread
+            Platform.runLater(() -> {
+                setPercentageText(l1, r1, left1, right1);
+                setPercentageText(l2, r2, left2, right2);
+                equilibrium.setText(time);
+            });
         }
 
         private void setPercentageText(int l1, int r1, Text left1, Text right1) {
@@ -510,4 +805,32 @@ class Controller implements SimulationLimits {
             }
         }
     }
+
+    /**
+     * Runnable which shows the statistics of the simulation every time the run method is invoked, while they are recorded.
+     */
+    public class UpdateStatisticsThread implements Runnable{
+
+        private TickMetrics metrics;
+        private Text statistics;
+
+        /**
+         * Constructs a new instance.
+         *
+         * @param m Statistics recorded by the simulation.
+         * @param t Text to display the statistics.
+         */
+        UpdateStatisticsThread(TickMetrics m, Text t){
+            metrics = m;
+            statistics = t;
+        }
+
+        @Override
+        public void run() {
+            if (metrics.isEnabled()){
+                String summary = metrics.summary();
+                Platform.runLater(() -> statistics.setText(summary));
+            }
+        }
+    }
 }
@@ -0,0 +1,228 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Runs a single simulation without any GUI, split into vertical strips each simulated by its own {@code StripWorker} process,
+ * so that the area and the number of particles are not limited by the memory and processors of a single process (or machine).
+ *
+ * The coordinator sets up the workers, then sums the number of particles of each species in each division over all strips
+ * every {@code sampleRate} updates and writes them as CSV, and reports when the simulation reached equilibrium.
+ * Workers are started by the coordinator as processes of the same Java installation (spawn), or are started by hand on any machine
+ * with {@code java StripWorker <host> <port>} (the coordinator then waits for them and prints where it listens).
+ *
+ * The spec is a properties file giving height, width, pores, speed, size1, size2, left1, right1, left2, right2 and ticks as for a
+ * {@code ParameterSweep} (single values only, with height and width beyond the limits of the GUI), and workers, seed, sampleRate,
+ * threads (of each worker), host and port (where the coordinator listens), spawn, tolerance and window (of the {@code EquilibriumDetector}).
+ * Only the fixed time step is supported.
+ *
+ * Usage: {@code java DistributedRunner <spec> [output file]} - samples are written to the standard output if no output file is given.
+ */
+public class DistributedRunner implements SimulationLimits {
+
+    //Largest height and width, so that a mistyped value does not fill the memory of the workers
+    private static final int maxSide = 1_000_000;
+    //Number of milliseconds to wait for spawned workers to connect
+    private static final int connectTimeout = 60_000;
+
+    private static final String[] columns = {"tick", "left1", "right1", "left2", "right2", "percentLeft1", "percentLeft2"};
+
+    private final int height, width, pores;
+    private final double speed;
+    private final int size1, size2;
+    private final int left1, right1, left2, right2;
+    private final long ticks;
+    private final int workers;
+    private final long seed;
+    private final int sampleRate;
+    private final int threads;
+    private final String host;
+    private final int port;
+    private final boolean spawn;
+    private final double tolerance;
+    private final int window;
+
+    /**
+     * Reads a spec.
+     *
+     * @throws IllegalArgumentException if a value is not understood, is beyond its limits, or leaves strips too narrow.
+     */
+    DistributedRunner(Properties spec){
+        height = (int)ParameterSweep.single(spec, "height", "200", MIN_HEIGHT, maxSide);
+        width = (int)ParameterSweep.single(spec, "width", "400", MIN_WIDTH, maxSide);
+        pores = (int)ParameterSweep.single(spec, "pores", "3", MIN_PORES, MAX_PORES);
+        speed = ParameterSweep.single(spec, "speed", "1", MIN_SPEED, MAX_SPEED);
+        size1 = (int)ParameterSweep.single(spec, "size1", "5", MIN_SIZE, MAX_SIZE);
+        size2 = (int)ParameterSweep.single(spec, "size2", "5", MIN_SIZE, MAX_SIZE);
+        //Ids of particles are ints, counted over all strips
+        left1 = (int)ParameterSweep.single(spec, "left1", "100", 0, Integer.MAX_VALUE/4);
+        right1 = (int)ParameterSweep.single(spec, "right1", "0", 0, Integer.MAX_VALUE/4);
+        left2 = (int)ParameterSweep.single(spec, "left2", "0", 0, Integer.MAX_VALUE/4);
+        right2 = (int)ParameterSweep.single(spec, "right2", "100", 0, Integer.MAX_VALUE/4);
+        ticks = (long)ParameterSweep.single(spec, "ticks", "50000", 1, Long.MAX_VALUE);
+        workers = (int)ParameterSweep.single(spec, "workers", "2", 1, 1024);
+        sampleRate = (int)ParameterSweep.single(spec, "sampleRate", "50", 1, Integer.MAX_VALUE);
+        threads = (int)ParameterSweep.single(spec, "threads", "1", 1, 1024);
+        port = (int)ParameterSweep.single(spec, "port", "0", 0, 65535);
+        tolerance = ParameterSweep.single(spec, "tolerance", "5", 0, 50);
+        window = (int)ParameterSweep.single(spec, "window", "20", 1, Integer.MAX_VALUE);
+        host = spec.getProperty("host", "127.0.0.1").trim();
+        spawn = Boolean.parseBoolean(spec.getProperty("spawn", "true").trim());
+        String seed = spec.getProperty("seed");
+        try {
+            this.seed = seed == null ? new SplittableRandom().nextLong() : Long.parseLong(seed.trim());
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("Invalid value for seed: "+seed);
+        }
+        if (!SimulationEngine.canContainPores(height, pores)){
+            throw new IllegalArgumentException("Height "+height+" is too small to contain "+pores+" pores");
+        }
+        //Particles must not move past the halo of the neighbouring strip in a single update
+        if ((double)width/workers < 2*StripWorker.haloWidth+MAX_SPEED){
+            throw new IllegalArgumentException("Width "+width+" is too small to be split between "+workers+" workers");
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 2){
+            System.err.println("Usage: java DistributedRunner <spec> [output file]");
+            System.exit(2);
+        }
+        DistributedRunner runner;
+        try (Reader spec = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.ISO_8859_1)){
+            Properties properties = new Properties();
+            properties.load(spec);
+            runner = new DistributedRunner(properties);
+        } catch (IllegalArgumentException e){
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        try (Writer out = args.length == 2 ? Files.newBufferedWriter(Paths.get(args[1]), StandardCharsets.UTF_8)
+                : new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))){
+            runner.run(out);
+        }
+    }
+
+    /**
+     * Sets up the workers, then writes the samples they send until the last update.
+     *
+     * @param out Where the samples are written, flushed after every sample.
+     * @throws IOException if a worker can not be reached or the samples can not be written.
+     */
+    void run(Writer out) throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        SocketChannel[] links = new SocketChannel[workers];
+        try (ServerSocketChannel server = ServerSocketChannel.open()){
+            server.bind(new InetSocketAddress(host, port));
+            int boundPort = server.socket().getLocalPort();
+            if (spawn){
+                //Workers run with the same options and classes as the coordinator
+                List<String> command = new ArrayList<>();
+                command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+                command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+                command.addAll(List.of("-cp", System.getProperty("java.class.path"), StripWorker.class.getName(), host, Integer.toString(boundPort)));
+                for (int k = 0; k < workers; k++){
+                    processes.add(new ProcessBuilder(command).inheritIO().start());
+                }
+                server.socket().setSoTimeout(connectTimeout);
+            } else {
+                System.err.printf("Waiting for %d workers on %s:%d%n", workers, host, boundPort);
+            }
+            //Workers are given strips from left to right in the order they connect
+            String[] hosts = new String[workers];
+            int[] ports = new int[workers];
+            for (int k = 0; k < workers; k++){
+                links[k] = server.socket().accept().getChannel();
+                ByteBuffer hello = StripWorker.receive(links[k], null);
+                ports[k] = hello.getInt();
+                byte[] address = new byte[hello.getInt()];
+                hello.get(address);
+                hosts[k] = new String(address, StandardCharsets.UTF_8);
+            }
+            SplittableRandom seeds = new SplittableRandom(seed);
+            for (int k = 0; k < workers; k++){
+                double left = -width/2.0+(double)width*k/workers, right = k == workers-1 ? width/2.0 : -width/2.0+(double)width*(k+1)/workers;
+                StripWorker.send(links[k], new StripWorker.Setup(k, workers, height, width, pores, speed, left, right, size1, size2,
+                        share(left1, -width/2.0, 0, left, right), share(right1, 0, width/2.0, left, right),
+                        share(left2, -width/2.0, 0, left, right), share(right2, 0, width/2.0, left, right),
+                        seeds.nextLong(), ticks, sampleRate, threads, k > 0 ? hosts[k-1] : "", k > 0 ? ports[k-1] : 0).write());
+            }
+
+            out.write(String.join(",", columns));
+            EquilibriumDetector detector = new EquilibriumDetector(tolerance, window);
+            ByteBuffer[] samples = new ByteBuffer[workers];
+            int[] leftCount = new int[2], rightCount = new int[2];
+            long tick;
+            do {
+                tick = -1;
+                leftCount[0] = rightCount[0] = leftCount[1] = rightCount[1] = 0;
+                for (int k = 0; k < workers; k++){
+                    samples[k] = StripWorker.receive(links[k], samples[k]);
+                    long workerTick = samples[k].getLong();
+                    if (tick >= 0 && workerTick != tick){
+                        throw new IOException("Worker "+k+" sent update "+workerTick+" instead of "+tick);
+                    }
+                    tick = workerTick;
+                    for (int s = 0; s < 2; s++){
+                        leftCount[s] += samples[k].getInt();
+                        rightCount[s] += samples[k].getInt();
+                    }
+                }
+                detector.sample(tick, leftCount, rightCount);
+                out.write("\n"+BatchRunner.toCsv(new Object[]{tick, leftCount[0], rightCount[0], leftCount[1], rightCount[1],
+                        BatchRunner.percent(leftCount[0], rightCount[0]), BatchRunner.percent(leftCount[1], rightCount[1])}));
+                out.flush();
+            } while (tick < ticks);
+            out.write("\n");
+            System.err.println(detector.getEquilibriumTick() < 0 ? "Equilibrium not reached"
+                    : "Equilibrium reached at update "+detector.getEquilibriumTick());
+
+            for (Process process : processes){
+                if (process.waitFor() != 0){
+                    throw new IOException("Worker exited with "+process.exitValue());
+                }
+            }
+        } finally {
+            for (SocketChannel link : links){
+                if (link != null){
+                    link.close();
+                }
+            }
+            for (Process process : processes){
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Splits particles evenly over the part of the area between {@code start} and {@code end}, by width.
+     * Shares are rounded so that they add up to {@code number} over all strips.
+     *
+     * @return number of particles falling in the strip between {@code left} and {@code right}.
+     */
+    private static int share(int number, double start, double end, double left, double right){
+        return cumulative(number, start, end, right)-cumulative(number, start, end, left);
+    }
+
+    /**
+     * @return number of particles falling left of {@code x}.
+     */
+    private static int cumulative(int number, double start, double end, double x){
+        return (int)Math.round(number*Math.min(1, Math.max(0, (x-start)/(end-start))));
+    }
+}
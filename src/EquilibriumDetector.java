@@ -0,0 +1,148 @@
+/**
+ * Decides from a stream of samples of the number of particles in each division whether the simulation reached equilibrium,
+ * and when it did.
+ *
+ * For each species, the percentage of its particles in the left division is followed by a running average (EWMA), and its mean and variance
+ * are worked out over consecutive windows of samples (Welford's method), so that each sample takes constant time and memory.
+ * Equilibrium is reached at the end of a window once, for every species present:
+ * - the running average is within the tolerance of 50% (concentrations are equal on average), and
+ * - the mean of the window did not drift from that of the window before it beyond what the variance of the samples explains,
+ *   unless the drift is too small to matter (less than a quarter of the tolerance).
+ * The time to equilibrium is the tick from which the running average stayed within the tolerance up to that point.
+ *
+ * Not thread-safe - samples are to be given by a single thread.
+ */
+class EquilibriumDetector {
+
+    //A drift between two windows is only significant beyond this many standard errors
+    private static final double driftSigmas = 3;
+
+    private final double tolerance;
+    private final int window;
+    private final double alpha;
+
+    //Running statistics of each species - running average, statistics of the current window and mean and variance of the previous one
+    private final double[] average = new double[2];
+    private final int[] total = new int[2];
+    private final double[] mean = new double[2], squares = new double[2];
+    private final double[] previousMean = new double[2], previousVariance = new double[2];
+    private int samples;
+    private boolean hasPrevious;
+    private long lastTick = -1;
+
+    //Tick from which the running averages stayed within the tolerance (-1 if they are not), and first tick at equilibrium (-1 if not yet)
+    private long withinSince = -1;
+    private long equilibriumTick = -1;
+    private boolean atEquilibrium;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param tolerance Largest difference (in %) from equal concentrations that counts as equilibrium.
+     * @param window Number of samples in a window - also the number of samples the running average mostly covers.
+     */
+    EquilibriumDetector(double tolerance, int window){
+        this.tolerance = tolerance;
+        this.window = window;
+        alpha = 2.0/(window+1);
+    }
+
+    /**
+     * Adds a sample. Starts over if particles were added or removed, or if the tick went back (the simulation was set up again).
+     *
+     * @param tick Tick of the sample.
+     * @param left Number of particles of each species in the left division.
+     * @param right Number of particles of each species in the right division.
+     * @return whether the simulation is at equilibrium.
+     */
+    boolean sample(long tick, int[] left, int[] right){
+        if (tick < lastTick || left[0]+right[0] != total[0] || left[1]+right[1] != total[1]){
+            reset();
+            total[0] = left[0]+right[0];
+            total[1] = left[1]+right[1];
+        }
+        boolean first = lastTick < 0;
+        lastTick = tick;
+
+        boolean within = true;
+        samples++;
+        for (int s = 0; s < 2; s++){
+            if (total[s] == 0){
+                continue;
+            }
+            double percent = 100.0*left[s]/total[s];
+            average[s] = first ? percent : average[s]+alpha*(percent-average[s]);
+            double delta = percent-mean[s];
+            mean[s] += delta/samples;
+            squares[s] += delta*(percent-mean[s]);
+            within &= Math.abs(average[s]-50) <= tolerance;
+        }
+        if (!within){
+            withinSince = -1;
+            atEquilibrium = false;
+        } else if (withinSince < 0){
+            withinSince = tick;
+        }
+
+        //Test for drift at the end of every window, then start the next window
+        if (samples == window){
+            boolean drifting = false;
+            for (int s = 0; s < 2; s++){
+                double variance = window > 1 ? squares[s]/(window-1) : 0;
+                if (total[s] > 0 && hasPrevious){
+                    double drift = Math.abs(mean[s]-previousMean[s]);
+                    double standardError = Math.sqrt((variance+previousVariance[s])/window);
+                    drifting |= drift > driftSigmas*standardError && drift > tolerance/4;
+                }
+                previousMean[s] = mean[s];
+                previousVariance[s] = variance;
+                mean[s] = 0;
+                squares[s] = 0;
+            }
+            atEquilibrium = hasPrevious && within && !drifting;
+            if (atEquilibrium && equilibriumTick < 0){
+                equilibriumTick = withinSince;
+            }
+            hasPrevious = true;
+            samples = 0;
+        }
+        return atEquilibrium;
+    }
+
+    /**
+     * Forgets all samples.
+     */
+    void reset(){
+        samples = 0;
+        hasPrevious = false;
+        lastTick = -1;
+        withinSince = -1;
+        equilibriumTick = -1;
+        atEquilibrium = false;
+        for (int s = 0; s < 2; s++){
+            mean[s] = 0;
+            squares[s] = 0;
+        }
+    }
+
+    /**
+     * @return whether the simulation was at equilibrium as of the last window.
+     */
+    boolean isAtEquilibrium(){
+        return atEquilibrium;
+    }
+
+    /**
+     * @return tick at which the simulation first reached equilibrium, or -1 if it did not yet.
+     */
+    long getEquilibriumTick(){
+        return equilibriumTick;
+    }
+
+    /**
+     * @return running average of the percentage of particles of a species in the left division.
+     */
+    double getAverage(int species){
+        return average[species];
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+
+/**
+ * Priority queue of predicted collisions, ordered by the time at which they happen.
+ *
+ * Events are kept in a binary heap of primitive arrays, so that no object is allocated per event once the arrays are large enough.
+ * Predictions are never removed when they become outdated - each event records the number of collisions its particles had gone through
+ * when it was predicted, and is skipped when it is polled if either particle collided since (lazy invalidation).
+ */
+class EventQueue {
+
+    private double[] time;
+    //a is the particle of the event, b the other particle (>= 0) or the obstacle it collides with (< 0)
+    private int[] a, b;
+    //Collision counts of a and b when the event was predicted
+    private int[] countA, countB;
+    private int size;
+
+    //Fields of the event removed by the last poll
+    private double polledTime;
+    private int polledA, polledB, polledCountA, polledCountB;
+
+    EventQueue(){
+        time = new double[64];
+        a = new int[64];
+        b = new int[64];
+        countA = new int[64];
+        countB = new int[64];
+    }
+
+    void clear(){
+        size = 0;
+    }
+
+    boolean isEmpty(){
+        return size == 0;
+    }
+
+    /**
+     * Adds a predicted event.
+     *
+     * @param t Time of the event.
+     * @param particle Particle of the event.
+     * @param other Other particle or obstacle of the event.
+     * @param particleCount Collision count of the particle at the time of prediction.
+     * @param otherCount Collision count of the other particle at the time of prediction (ignored for obstacles).
+     */
+    void add(double t, int particle, int other, int particleCount, int otherCount){
+        if (size == time.length){
+            time = Arrays.copyOf(time, size*2);
+            a = Arrays.copyOf(a, size*2);
+            b = Arrays.copyOf(b, size*2);
+            countA = Arrays.copyOf(countA, size*2);
+            countB = Arrays.copyOf(countB, size*2);
+        }
+        //Sift the new event up from the last leaf
+        int k = size++;
+        while (k > 0){
+            int parent = (k-1) >>> 1;
+            if (time[parent] <= t) break;
+            move(parent, k);
+            k = parent;
+        }
+        set(k, t, particle, other, particleCount, otherCount);
+    }
+
+    /**
+     * Removes the earliest event. Its fields remain readable through the {@code polled} getters until the next call.
+     */
+    void poll(){
+        polledTime = time[0];
+        polledA = a[0];
+        polledB = b[0];
+        polledCountA = countA[0];
+        polledCountB = countB[0];
+
+        //Sift the last event down from the root
+        int last = --size;
+        if (last == 0) return;
+        double t = time[last];
+        int k = 0;
+        while (true){
+            int child = 2*k+1;
+            if (child >= last) break;
+            if (child+1 < last && time[child+1] < time[child]) child++;
+            if (t <= time[child]) break;
+            move(child, k);
+            k = child;
+        }
+        set(k, t, a[last], b[last], countA[last], countB[last]);
+    }
+
+    /**
+     * @return time of the earliest event. The queue must not be empty.
+     */
+    double peekTime(){
+        return time[0];
+    }
+
+    double polledTime(){
+        return polledTime;
+    }
+
+    int polledParticle(){
+        return polledA;
+    }
+
+    int polledOther(){
+        return polledB;
+    }
+
+    int polledParticleCount(){
+        return polledCountA;
+    }
+
+    int polledOtherCount(){
+        return polledCountB;
+    }
+
+    private void move(int from, int to){
+        set(to, time[from], a[from], b[from], countA[from], countB[from]);
+    }
+
+    private void set(int k, double t, int particle, int other, int particleCount, int otherCount){
+        time[k] = t;
+        a[k] = particle;
+        b[k] = other;
+        countA[k] = particleCount;
+        countB[k] = otherCount;
+    }
+}
@@ -0,0 +1,255 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copy of the state of all particles at the end of one update duration, along with the membrane they move around.
+ *
+ * Snapshots are published by the simulation thread and read by the JavaFX application thread (and any other reader)
+ * without locking, since none of the arrays are modified while the snapshot is held.
+ * Snapshots taken from an engine come from its {@code SnapshotPool} and are reused for later states once no reader holds them:
+ * each reader holds a snapshot by {@link #retain()} and gives it up by {@link #release()} once done reading it.
+ * Other snapshots (played back from a recording) are never reused, and holding them does nothing.
+ * The membrane is shared between all snapshots taken between two initializations of the engine (which replace it rather than modify it),
+ * so a reader can tell that the membrane changed by comparing {@link #getMembrane()} with the membrane it last saw.
+ */
+final class FrameSnapshot {
+    private long tick;
+    private long time;
+    private int count;
+    private double[] x, y;
+    private double[] vX, vY;
+    private double[] radius;
+    private int[] species;
+    //Ids of the particles, which do not change when other particles are removed - null if not known (played back from a recording)
+    private int[] id;
+    //Number of particles of each species in each division
+    private int[] leftCount, rightCount;
+    //Simulation area and membrane
+    private int height, width;
+    private Membrane membrane;
+
+    //Pool the snapshot goes back to once no reader holds it, and number of readers holding it - both null if the snapshot is never reused
+    private final SnapshotPool pool;
+    private final AtomicInteger holders;
+
+    FrameSnapshot(long tick, long time, int count, double[] x, double[] y, double[] vX, double[] vY, double[] radius, int[] species, int[] id,
+                  int[] leftCount, int[] rightCount, int height, int width, Membrane membrane){
+        this.tick = tick;
+        this.time = time;
+        this.count = count;
+        this.x = x;
+        this.y = y;
+        this.vX = vX;
+        this.vY = vY;
+        this.radius = radius;
+        this.species = species;
+        this.id = id;
+        this.leftCount = leftCount;
+        this.rightCount = rightCount;
+        this.height = height;
+        this.width = width;
+        this.membrane = membrane;
+        pool = null;
+        holders = null;
+    }
+
+    /**
+     * Constructs an empty snapshot to be filled by {@link #capture}, and reused once released.
+     *
+     * @param pool Pool the snapshot goes back to once no reader holds it.
+     */
+    FrameSnapshot(SnapshotPool pool){
+        this.pool = pool;
+        holders = new AtomicInteger();
+        x = new double[0];
+        y = new double[0];
+        vX = new double[0];
+        vY = new double[0];
+        radius = new double[0];
+        species = new int[0];
+        id = new int[0];
+        leftCount = new int[2];
+        rightCount = new int[2];
+    }
+
+    /**
+     * Copies the state of the particles of an engine into this snapshot, growing its arrays if they are too small.
+     * Only to be called by the holder of a snapshot just taken from its pool, before handing it to any other reader.
+     *
+     * @param tick Number of update durations the engine went through.
+     * @param particles Particles of the engine.
+     * @param count Number of particles.
+     * @param speciesCount Number of particles of each species.
+     * @param rightCount Number of particles of each species in the right division.
+     * @param height Height of the simulation area.
+     * @param width Width of the simulation area.
+     * @param membrane Membrane of the simulation area.
+     */
+    void capture(long tick, ParticleStore particles, int count, int[] speciesCount, int[] rightCount, int height, int width, Membrane membrane){
+        if (x.length < count){
+            int capacity = Math.max(count, x.length*2);
+            x = new double[capacity];
+            y = new double[capacity];
+            vX = new double[capacity];
+            vY = new double[capacity];
+            radius = new double[capacity];
+            species = new int[capacity];
+            id = new int[capacity];
+        }
+        for (int i = 0; i < count; i++){
+            x[i] = particles.getX(i);
+            y[i] = particles.getY(i);
+            vX[i] = particles.getVX(i);
+            vY[i] = particles.getVY(i);
+            radius[i] = particles.getRadius(i);
+            species[i] = particles.getSpecies(i);
+            id[i] = particles.getId(i);
+        }
+        for (int s = 0; s < 2; s++){
+            leftCount[s] = speciesCount[s]-rightCount[s];
+            this.rightCount[s] = rightCount[s];
+        }
+        this.tick = tick;
+        time = System.nanoTime();
+        this.count = count;
+        this.height = height;
+        this.width = width;
+        this.membrane = membrane;
+    }
+
+    /**
+     * Makes the caller the only holder of a snapshot taken from its pool.
+     */
+    void hold(){
+        holders.set(1);
+    }
+
+    /**
+     * Holds the snapshot once more, unless it was already given up by every holder (it may then be reused at any time).
+     *
+     * @return whether the snapshot is now held by the caller.
+     */
+    boolean retain(){
+        if (holders == null){
+            return true;
+        }
+        int held;
+        do {
+            held = holders.get();
+            if (held == 0){
+                return false;
+            }
+        } while (!holders.compareAndSet(held, held+1));
+        return true;
+    }
+
+    /**
+     * Gives up a hold of the snapshot. It goes back to its pool once no one holds it, and must not be read by the caller any more.
+     */
+    void release(){
+        if (holders != null && holders.decrementAndGet() == 0){
+            pool.put(this);
+        }
+    }
+
+    /**
+     * @return number of update durations the engine had gone through when this snapshot was taken.
+     */
+    long getTick(){
+        return tick;
+    }
+
+    /**
+     * @return value of {@link System#nanoTime()} when this snapshot was taken.
+     */
+    long getTime(){
+        return time;
+    }
+
+    int getCount(){
+        return count;
+    }
+
+    double getX(int i){
+        return x[i];
+    }
+
+    double getY(int i){
+        return y[i];
+    }
+
+    /**
+     * @return horizontal position of particle {@code i} the given fraction of the way from its position in {@code previous} to its position
+     * in this snapshot, or its position in this snapshot if the particle can not be followed from {@code previous}.
+     */
+    double getX(int i, FrameSnapshot previous, double alpha){
+        return follows(i, previous) ? previous.x[i]+(x[i]-previous.x[i])*alpha : x[i];
+    }
+
+    /**
+     * @return vertical position of particle {@code i} the given fraction of the way from its position in {@code previous} to its position
+     * in this snapshot, or its position in this snapshot if the particle can not be followed from {@code previous}.
+     */
+    double getY(int i, FrameSnapshot previous, double alpha){
+        return follows(i, previous) ? previous.y[i]+(y[i]-previous.y[i])*alpha : y[i];
+    }
+
+    /**
+     * Checks whether particle {@code i} of this snapshot is particle {@code i} of an earlier snapshot of the same simulation.
+     * This is not the case if the simulation was set up again in between, or if another particle was moved into that index
+     * when a particle was removed.
+     */
+    private boolean follows(int i, FrameSnapshot previous){
+        return previous != null && previous.membrane == membrane && previous.tick < tick && id != null && previous.id != null
+                && i < previous.count && previous.id[i] == id[i];
+    }
+
+    double getVX(int i){
+        return vX[i];
+    }
+
+    double getVY(int i){
+        return vY[i];
+    }
+
+    double getRadius(int i){
+        return radius[i];
+    }
+
+    int getSpecies(int i){
+        return species[i];
+    }
+
+    /**
+     * @return id of particle {@code i}, which stays the same while the particle moves to other indices.
+     * @throws NullPointerException if ids are not known.
+     */
+    int getId(int i){
+        return id[i];
+    }
+
+    /**
+     * @return number of particles of the given species in the left division.
+     */
+    int getLeftCount(int particleSpecies){
+        return leftCount[particleSpecies];
+    }
+
+    /**
+     * @return number of particles of the given species in the right division.
+     */
+    int getRightCount(int particleSpecies){
+        return rightCount[particleSpecies];
+    }
+
+    int getHeight(){
+        return height;
+    }
+
+    int getWidth(){
+        return width;
+    }
+
+    Membrane getMembrane(){
+        return membrane;
+    }
+}
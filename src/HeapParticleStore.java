@@ -0,0 +1,193 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * {@code ParticleStore} keeping each column in a primitive array on the heap.
+ *
+ * The arrays are read and written directly by {@code VectorKernel}, and are replaced whenever the capacity changes.
+ */
+final class HeapParticleStore implements ParticleStore {
+
+    double[] x, y;
+    double[] vX, vY;
+    double[] radius;
+    int[] species;
+    int[] buffer;
+    int[] lastCollide;
+    double[] clock;
+    int[] collisions;
+    int[] id;
+
+    HeapParticleStore(int capacity){
+        x = new double[capacity];
+        y = new double[capacity];
+        vX = new double[capacity];
+        vY = new double[capacity];
+        radius = new double[capacity];
+        species = new int[capacity];
+        buffer = new int[capacity];
+        lastCollide = new int[capacity];
+        clock = new double[capacity];
+        collisions = new int[capacity];
+        id = new int[capacity];
+    }
+
+    @Override
+    public int getCapacity(){
+        return x.length;
+    }
+
+    @Override
+    public void setCapacity(int capacity){
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vX = Arrays.copyOf(vX, capacity);
+        vY = Arrays.copyOf(vY, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        species = Arrays.copyOf(species, capacity);
+        buffer = Arrays.copyOf(buffer, capacity);
+        lastCollide = Arrays.copyOf(lastCollide, capacity);
+        clock = Arrays.copyOf(clock, capacity);
+        collisions = Arrays.copyOf(collisions, capacity);
+        id = Arrays.copyOf(id, capacity);
+    }
+
+    @Override
+    public double getX(int i){
+        return x[i];
+    }
+
+    @Override
+    public void setX(int i, double x){
+        this.x[i] = x;
+    }
+
+    @Override
+    public double getY(int i){
+        return y[i];
+    }
+
+    @Override
+    public void setY(int i, double y){
+        this.y[i] = y;
+    }
+
+    @Override
+    public double getVX(int i){
+        return vX[i];
+    }
+
+    @Override
+    public void setVX(int i, double vX){
+        this.vX[i] = vX;
+    }
+
+    @Override
+    public double getVY(int i){
+        return vY[i];
+    }
+
+    @Override
+    public void setVY(int i, double vY){
+        this.vY[i] = vY;
+    }
+
+    @Override
+    public double getRadius(int i){
+        return radius[i];
+    }
+
+    @Override
+    public void setRadius(int i, double radius){
+        this.radius[i] = radius;
+    }
+
+    @Override
+    public int getSpecies(int i){
+        return species[i];
+    }
+
+    @Override
+    public void setSpecies(int i, int species){
+        this.species[i] = species;
+    }
+
+    @Override
+    public int getBuffer(int i){
+        return buffer[i];
+    }
+
+    @Override
+    public void setBuffer(int i, int buffer){
+        this.buffer[i] = buffer;
+    }
+
+    @Override
+    public int getLastCollide(int i){
+        return lastCollide[i];
+    }
+
+    @Override
+    public void setLastCollide(int i, int lastCollide){
+        this.lastCollide[i] = lastCollide;
+    }
+
+    @Override
+    public double getClock(int i){
+        return clock[i];
+    }
+
+    @Override
+    public void setClock(int i, double clock){
+        this.clock[i] = clock;
+    }
+
+    @Override
+    public int getCollisions(int i){
+        return collisions[i];
+    }
+
+    @Override
+    public void setCollisions(int i, int collisions){
+        this.collisions[i] = collisions;
+    }
+
+    @Override
+    public int getId(int i){
+        return id[i];
+    }
+
+    @Override
+    public void setId(int i, int id){
+        this.id[i] = id;
+    }
+
+    @Override
+    public void write(ByteBuffer out, int count){
+        for (double[] column : new double[][]{x, y, vX, vY, radius}){
+            out.asDoubleBuffer().put(column, 0, count);
+            out.position(out.position()+8*count);
+        }
+        for (int[] column : new int[][]{species, buffer, lastCollide, id}){
+            out.asIntBuffer().put(column, 0, count);
+            out.position(out.position()+4*count);
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer in, int count){
+        for (double[] column : new double[][]{x, y, vX, vY, radius}){
+            in.asDoubleBuffer().get(column, 0, count);
+            in.position(in.position()+8*count);
+        }
+        for (int[] column : new int[][]{species, buffer, lastCollide, id}){
+            in.asIntBuffer().get(column, 0, count);
+            in.position(in.position()+4*count);
+        }
+    }
+
+    @Override
+    public void close(){
+        //The arrays are left to the garbage collector
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Arrays;
+
+/**
+ * Histogram of durations in nanoseconds with a bounded relative error, in the manner of HdrHistogram.
+ *
+ * Durations are counted in buckets whose width doubles with every power of 2, each power of 2 being split into {@code subBuckets}
+ * buckets of equal width, so any duration is known to within about 6% of its value using a fixed array and no allocation per value.
+ * Values are only ever recorded by one thread; other threads may read them at any time and then see a state that is slightly out of date.
+ */
+class LatencyHistogram {
+
+    //Number of buckets each power of 2 is split into (a power of 2 itself)
+    private static final int subBucketBits = 4;
+    private static final int subBuckets = 1 << subBucketBits;
+
+    private final long[] counts;
+    private volatile long total;
+    private volatile long max;
+    //Set by any thread, the histogram is then emptied by the recording thread before it records its next value
+    private volatile boolean resetRequested;
+
+    LatencyHistogram(){
+        counts = new long[(64-subBucketBits+1)*subBuckets];
+    }
+
+    /**
+     * Counts a duration.
+     *
+     * @param nanos Duration in nanoseconds.
+     */
+    void record(long nanos){
+        if (resetRequested){
+            Arrays.fill(counts, 0);
+            total = 0;
+            max = 0;
+            resetRequested = false;
+        }
+        if (nanos < 0){
+            nanos = 0;
+        }
+        counts[bucketOf(nanos)]++;
+        total++;
+        if (nanos > max){
+            max = nanos;
+        }
+    }
+
+    /**
+     * Empties the histogram before the next value is recorded.
+     */
+    void reset(){
+        resetRequested = true;
+    }
+
+    long getTotal(){
+        return total;
+    }
+
+    long getMax(){
+        return max;
+    }
+
+    /**
+     * @param percentile Percentage of the durations recorded (0 to 100).
+     * @return duration in nanoseconds that the given percentage of the durations recorded did not exceed, or 0 if none was recorded.
+     */
+    long getPercentile(double percentile){
+        long total = this.total;
+        if (total == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil(percentile/100*total));
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++){
+            seen += counts[b];
+            if (seen >= rank){
+                return Math.min(highestIn(b), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return bucket counting the given duration.
+     */
+    private static int bucketOf(long nanos){
+        //Durations below subBuckets each have a bucket of their own
+        if (nanos < subBuckets){
+            return (int)nanos;
+        }
+        int power = 63-Long.numberOfLeadingZeros(nanos);
+        int shift = power-subBucketBits;
+        return (shift+1)*subBuckets+(int)((nanos >>> shift) & (subBuckets-1));
+    }
+
+    /**
+     * @return highest duration counted by bucket {@code b}.
+     */
+    private static long highestIn(int b){
+        if (b < subBuckets){
+            return b;
+        }
+        int shift = b/subBuckets-1;
+        long lowest = (long)(subBuckets+b%subBuckets) << shift;
+        return lowest+(1L << shift)-1;
+    }
+}
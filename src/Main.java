@@ -1,12 +1,17 @@
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Text;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javax.swing.*;
 
@@ -19,14 +24,30 @@ public class Main extends Application implements SimulationLimits{
 
     private BorderPane root;
 
-    //Buttons for adding more particles
+    //Buttons for adding more particles, and fields for user to enter how many are added at once
     private Button addParticleLeft, addParticleRight;
+    private Button removeParticleLeft, removeParticleRight;
+    private TextField numberToAddLeft, numberToAddRight;
     //Fields for user to enter the variables of the simulation
     private TextField desiredHeight, desiredWidth, desiredParticleSize1, desiredParticleSize2;
     //Buttons for user to confirm the variables
     private Button setArea, setPores, setParticleSize;
     //Sliders to change some variables due to the small range of values accepted
     private Slider setSpeed, desiredPores;
+    //Checkbox for user to run the simulation as fast as possible instead of at a fixed time step
+    private CheckBox runAsFastAsPossible;
+    //Checkbox for user to handle collisions at the exact time they happen instead of once per time step
+    private CheckBox exactCollisions;
+    //Checkbox for user to record and show statistics of the simulation
+    private CheckBox showStatistics;
+    //Buttons for user to record the simulation into a file and to play a recording back
+    private Button record, replay;
+    private Button export;
+    //Buttons for user to save the complete state of the simulation into a file and to resume a saved simulation
+    private Button saveSimulation, restoreSimulation;
+    //Buttons and slider for user to play, pause and move through a recording, shown in place of the bottom pane while it is played back
+    private Button playReplay, backToSimulation;
+    private Slider replayPosition;
 
     //Radiobuttons for user to choose between adding particle 1 or particle 2 into either of the division
     private RadioButton[] leftParticleChoice, rightParticleChoice;
@@ -39,6 +60,12 @@ public class Main extends Application implements SimulationLimits{
     private Text noOfParticle1in2 = new Text("");
     private Text noOfParticle2in1 = new Text("");
     private Text noOfParticle2in2 = new Text("");
+    //Time the simulation took to reach equilibrium, once it did
+    private Text equilibrium = new Text("");
+    //Statistics of the simulation, shown over the simulation area while they are recorded
+    private Text statistics = new Text("");
+    //Percentage of each particle in each division over the whole simulation
+    private ConcentrationChart chart = new ConcentrationChart(240, 160);
 
     //Menubar to display supported languages so that user can choose what language he wishes to view the simulation in
     private MenuBar menuBar;
@@ -139,7 +166,7 @@ public class Main extends Application implements SimulationLimits{
             try {
                 if (Integer.parseInt(desiredHeight.getText())>=MIN_HEIGHT && Integer.parseInt(desiredHeight.getText())<=MAX_HEIGHT &&
                         Integer.parseInt(desiredWidth.getText())>=MIN_WIDTH && Integer.parseInt(desiredWidth.getText())<=MAX_WIDTH){
-                    root.setCenter(controller.getNewSimulationArea(Integer.parseInt(desiredHeight.getText()),Integer.parseInt(desiredWidth.getText())));
+                    showSimulationArea(controller.getNewSimulationArea(Integer.parseInt(desiredHeight.getText()),Integer.parseInt(desiredWidth.getText())));
                     primaryStage.sizeToScene();
                 } else throw new Exception();
             } catch (RuntimeException e){
@@ -174,7 +201,7 @@ public class Main extends Application implements SimulationLimits{
         //When user changes the desired pore size - USER HAVE PRESSED SET
         setPores.setOnAction(actionEvent -> {
             //Pass to controller to set up a new map
-            root.setCenter(controller.getNewSimulationArea((int) desiredPores.getValue()));
+            showSimulationArea(controller.getNewSimulationArea((int) desiredPores.getValue()));
             primaryStage.sizeToScene();
         });
 
@@ -194,8 +221,12 @@ public class Main extends Application implements SimulationLimits{
         leftParticleChoice[1].setToggleGroup(leftGroup);
         left.getChildren().add(leftParticleChoice[0]);
         left.getChildren().add(leftParticleChoice[1]);
+        numberToAddLeft = new TextField("1");
+        left.getChildren().add(numberToAddLeft);
         addParticleLeft = new Button(resourceBundle.getString("add"));
         left.getChildren().add(addParticleLeft);
+        removeParticleLeft = new Button(resourceBundle.getString("remove"));
+        left.getChildren().add(removeParticleLeft);
         GridPane temp3 = new GridPane();
         temp3.setPadding(new Insets(10,0,10,0));
         temp3.add(new Text(resourceBundle.getString("particle1InLeft")+": "),0,0);
@@ -206,27 +237,9 @@ public class Main extends Application implements SimulationLimits{
         root.setLeft(left);
 
         //When user confirms to add his chosen particle into the left division
-        addParticleLeft.setOnAction(actionEvent -> {
-            try {
-                //Particle 1
-                if (leftParticleChoice[0].isSelected()){
-                    controller.addParticle(1,-1);
-                //Particle 2
-                } else if (leftParticleChoice[1].isSelected()){
-                    controller.addParticle(2,-1);
-                }
-            //controller throws an Exception if no more particles can be added due to limits - handled by GUI class since only showing of message is needed
-            //simulation is therefore not reset and continues upon clicking ok
-            } catch (Exception e){
-                controller.pauseSimulation();
-                if (e.getMessage().equals("Max Particles")){
-                    JOptionPane.showMessageDialog(null,resourceBundle.getString("maxParticles"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(null,resourceBundle.getString("noSpace"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
-                }
-                controller.playSimulation();
-            }
-        });
+        addParticleLeft.setOnAction(actionEvent -> addParticles(leftParticleChoice, numberToAddLeft, -1));
+        //When user confirms to remove his chosen particle from the left division
+        removeParticleLeft.setOnAction(actionEvent -> removeParticles(leftParticleChoice, numberToAddLeft, -1));
 
         //Right pane - add particles to the right
         VBox right = new VBox();
@@ -242,8 +255,12 @@ public class Main extends Application implements SimulationLimits{
         rightParticleChoice[1].setToggleGroup(rightGroup);
         right.getChildren().add(rightParticleChoice[0]);
         right.getChildren().add(rightParticleChoice[1]);
+        numberToAddRight = new TextField("1");
+        right.getChildren().add(numberToAddRight);
         addParticleRight = new Button(resourceBundle.getString("add"));
         right.getChildren().add(addParticleRight);
+        removeParticleRight = new Button(resourceBundle.getString("remove"));
+        right.getChildren().add(removeParticleRight);
         GridPane temp2 = new GridPane();
         temp2.setPadding(new Insets(10,0,10,0));
         temp2.add(new Text(resourceBundle.getString("particle1InRight") + ": "), 0, 0);
@@ -254,33 +271,16 @@ public class Main extends Application implements SimulationLimits{
         GridPane temp1 = new GridPane();
         temp1.add(new Text(resourceBundle.getString("timeTillNextDirectionReset")+": "),0,0);
         temp1.add(countdown,1,0);
+        temp1.add(new Text(resourceBundle.getString("equilibriumReachedAfter")+": "),0,1);
+        temp1.add(equilibrium,1,1);
         right.getChildren().add(temp1);
+        right.getChildren().add(chart);
         root.setRight(right);
 
         //When user confirms to add his chosen particle into the right division
-        addParticleRight.setOnAction(actionEvent -> {
-            try {
-                //Particle 1
-                if (rightParticleChoice[0].isSelected()){
-                    controller.addParticle(1,1);
-                //Particle 2
-                } else if (rightParticleChoice[1].isSelected()){
-                    controller.addParticle(2,1);
-                }
-            //controller throws an Exception if no more particles can be added due to limits - handled by GUI class since only showing of message is needed
-            //simulation is therefore not reset and continues upon clicking ok
-            } catch (Exception e){
-                controller.pauseSimulation();
-                if (e.getMessage().equals("Max Particles")){
-                    JOptionPane.showMessageDialog(null, resourceBundle.getString("maxParticles"),
-                            resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
-                } else {
-                    JOptionPane.showMessageDialog(null, resourceBundle.getString("noSpace"),
-                            resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
-                }
-                controller.playSimulation();
-            }
-        });
+        addParticleRight.setOnAction(actionEvent -> addParticles(rightParticleChoice, numberToAddRight, 1));
+        //When user confirms to remove his chosen particle from the right division
+        removeParticleRight.setOnAction(actionEvent -> removeParticles(rightParticleChoice, numberToAddRight, 1));
 
         //Bottom pane - set speed of particles
         HBox bottom = new HBox();
@@ -303,10 +303,291 @@ public class Main extends Application implements SimulationLimits{
             controller.setSpeed(number2.doubleValue());
             particleSpeed.setText(String.format("%.1f",number2.doubleValue()));
         });
-        root.setCenter(controller.getSimulationArea());
+
+        runAsFastAsPossible = new CheckBox(resourceBundle.getString("runAsFastAsPossible"));
+        runAsFastAsPossible.setSelected(controller.getTimeStep() == 0);
+        bottom.getChildren().add(runAsFastAsPossible);
+
+        //When user toggles between running at the fixed time step and as fast as possible
+        //Particles move smoothly either way, since the longest gap shown moving follows the time between published states
+        runAsFastAsPossible.selectedProperty().addListener((observableValue, oldValue, newValue) -> {
+            controller.setTimeStep(newValue ? 0 : TIME_STEP);
+        });
+
+        exactCollisions = new CheckBox(resourceBundle.getString("exactCollisions"));
+        exactCollisions.setSelected(controller.isEventDriven());
+        bottom.getChildren().add(exactCollisions);
+
+        //When user toggles between checking collisions once per time step and handling them at the exact time they happen
+        exactCollisions.selectedProperty().addListener((observableValue, oldValue, newValue) -> {
+            controller.setEventDriven(newValue);
+        });
+
+        showStatistics = new CheckBox(resourceBundle.getString("showStatistics"));
+        showStatistics.setSelected(controller.isMetricsEnabled());
+        bottom.getChildren().add(showStatistics);
+
+        //When user toggles the recording and showing of statistics
+        showStatistics.selectedProperty().addListener((observableValue, oldValue, newValue) -> {
+            controller.setMetricsEnabled(newValue);
+            statistics.setVisible(newValue);
+        });
+
+        record = new Button(resourceBundle.getString(controller.isRecording() ? "stopRecording" : "record"));
+        bottom.getChildren().add(record);
+
+        //When user starts recording into a file of his choice, or stops recording
+        record.setOnAction(actionEvent -> {
+            try {
+                if (controller.isRecording()){
+                    //The simulation never waits for the file, so the user is told of any update it could not keep up with
+                    long dropped = controller.stopRecording();
+                    if (dropped > 0){
+                        JOptionPane.showMessageDialog(null,resourceBundle.getString("recordingDropped")+" "+dropped);
+                    }
+                } else {
+                    File file = new FileChooser().showSaveDialog(primaryStage);
+                    if (file != null){
+                        controller.startRecording(file);
+                    }
+                }
+            } catch (IOException e){
+                JOptionPane.showMessageDialog(null,resourceBundle.getString("recordingFailed"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
+            }
+            record.setText(resourceBundle.getString(controller.isRecording() ? "stopRecording" : "record"));
+        });
+
+        export = new Button(resourceBundle.getString(controller.isExporting() ? "stopExport" : "export"));
+        bottom.getChildren().add(export);
+
+        //When user starts exporting the concentrations after every update into a file of his choice, or stops exporting
+        export.setOnAction(actionEvent -> {
+            try {
+                if (controller.isExporting()){
+                    long dropped = controller.stopExport();
+                    if (dropped > 0){
+                        JOptionPane.showMessageDialog(null,resourceBundle.getString("exportDropped")+" "+dropped);
+                    }
+                } else {
+                    File file = new FileChooser().showSaveDialog(primaryStage);
+                    if (file != null){
+                        controller.startExport(file);
+                    }
+                }
+            } catch (IOException e){
+                JOptionPane.showMessageDialog(null,resourceBundle.getString("exportFailed"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
+            }
+            export.setText(resourceBundle.getString(controller.isExporting() ? "stopExport" : "export"));
+        });
+
+        replay = new Button(resourceBundle.getString("replay"));
+        bottom.getChildren().add(replay);
+
+        //When user chooses a recording to play back in place of the simulation
+        replay.setOnAction(actionEvent -> {
+            File file = new FileChooser().showOpenDialog(primaryStage);
+            if (file != null){
+                try {
+                    controller.openReplay(file, this::showReplayPosition);
+                    showReplay(primaryStage);
+                } catch (IOException e){
+                    JOptionPane.showMessageDialog(null,resourceBundle.getString("recordingFailed"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+
+        saveSimulation = new Button(resourceBundle.getString("saveSimulation"));
+        bottom.getChildren().add(saveSimulation);
+
+        //When user saves the simulation into a file of his choice - the simulation goes on running meanwhile
+        saveSimulation.setOnAction(actionEvent -> {
+            File file = new FileChooser().showSaveDialog(primaryStage);
+            if (file != null){
+                controller.saveSimulation(file).exceptionally(e -> {
+                    Platform.runLater(() -> JOptionPane.showMessageDialog(null,resourceBundle.getString("savingFailed"),
+                            resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE));
+                    return null;
+                });
+            }
+        });
+
+        restoreSimulation = new Button(resourceBundle.getString("restoreSimulation"));
+        bottom.getChildren().add(restoreSimulation);
+
+        //When user resumes a saved simulation - all settings shown are those of the saved simulation, so the whole GUI is set up again
+        restoreSimulation.setOnAction(actionEvent -> {
+            File file = new FileChooser().showOpenDialog(primaryStage);
+            if (file != null){
+                try {
+                    controller.restoreSimulation(file);
+                    setSimulation(primaryStage);
+                } catch (IOException e){
+                    JOptionPane.showMessageDialog(null,resourceBundle.getString("savingFailed"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+
+        //A recording shown before the GUI was reset is still shown
+        if (controller.isReplaying()){
+            showReplay(primaryStage);
+        } else {
+            showSimulationArea(controller.getSimulationArea());
+        }
         primaryStage.sizeToScene();
     }
 
+    /**
+     * Shows the recording opened in the controller in place of the simulation, with the controls to play it back in place of the bottom pane.
+     * All controls that change the simulation are disabled until the user goes back to the simulation.
+     *
+     * @param primaryStage Stage the simulation is shown in.
+     */
+    private void showReplay(final Stage primaryStage){
+        final Node bottom = root.getBottom();
+        HBox replayBar = new HBox();
+        replayBar.setPadding(new Insets(20,20,20,20));
+        replayBar.setSpacing(50);
+        replayBar.setAlignment(Pos.CENTER);
+
+        playReplay = new Button(resourceBundle.getString(controller.isReplayPlaying() ? "pause" : "play"));
+        replayBar.getChildren().add(playReplay);
+        //When user plays or pauses the recording - playing from the end starts again from the first frame
+        playReplay.setOnAction(actionEvent -> {
+            boolean playing = !controller.isReplayPlaying();
+            if (playing && replayPosition.getValue() >= controller.getReplayLength()-1){
+                controller.seekReplay(0);
+                replayPosition.setValue(0);
+            }
+            controller.setReplayPlaying(playing);
+            playReplay.setText(resourceBundle.getString(playing ? "pause" : "play"));
+        });
+
+        replayPosition = new Slider();
+        replayPosition.setMin(0);
+        replayPosition.setMax(controller.getReplayLength()-1);
+        replayPosition.setPrefWidth(300);
+        replayBar.getChildren().add(replayPosition);
+        //When user drags the slider to another frame of the recording
+        replayPosition.valueProperty().addListener((observableValue, number, number2) -> {
+            if (replayPosition.isValueChanging()){
+                controller.seekReplay((int)Math.round(number2.doubleValue()));
+            }
+        });
+        replayPosition.setOnMouseReleased(mouseEvent -> controller.seekReplay((int)Math.round(replayPosition.getValue())));
+
+        backToSimulation = new Button(resourceBundle.getString("backToSimulation"));
+        replayBar.getChildren().add(backToSimulation);
+        //When user stops watching the recording, the simulation is shown again as it was left
+        backToSimulation.setOnAction(actionEvent -> {
+            controller.closeReplay();
+            root.setBottom(bottom);
+            setSimulationControlsDisabled(false);
+            showSimulationArea(controller.getSimulationArea());
+            primaryStage.sizeToScene();
+        });
+
+        root.setBottom(replayBar);
+        setSimulationControlsDisabled(true);
+        showSimulationArea(controller.getReplayArea());
+        primaryStage.sizeToScene();
+    }
+
+    /**
+     * Moves the slider along with the recording as it plays, and shows the end of the recording on the play button.
+     *
+     * @param position Frame of the recording shown.
+     */
+    private void showReplayPosition(int position){
+        replayPosition.setValue(position);
+        if (position >= controller.getReplayLength()-1){
+            controller.setReplayPlaying(false);
+            playReplay.setText(resourceBundle.getString("play"));
+        }
+    }
+
+    /**
+     * Disables or enables the controls in the top, left and right panes, which all change the simulation.
+     */
+    private void setSimulationControlsDisabled(boolean disabled){
+        for (Node node : ((VBox) root.getTop()).getChildren()){
+            if (node != menuBar){
+                node.setDisable(disabled);
+            }
+        }
+        root.getLeft().setDisable(disabled);
+        root.getRight().setDisable(disabled);
+    }
+
+    /**
+     * Shows the simulation area in the center of the frame, with the statistics drawn over its top left corner.
+     *
+     * @param area Simulation area to show.
+     */
+    private void showSimulationArea(SimulationArea area){
+        statistics.setVisible(controller.isMetricsEnabled());
+        statistics.setMouseTransparent(true);
+        StackPane center = new StackPane(area, statistics);
+        StackPane.setAlignment(statistics, Pos.TOP_LEFT);
+        root.setCenter(center);
+        //Recording and exporting stop whenever the simulation is set up again
+        if (record != null){
+            record.setText(resourceBundle.getString(controller.isRecording() ? "stopRecording" : "record"));
+        }
+        if (export != null){
+            export.setText(resourceBundle.getString(controller.isExporting() ? "stopExport" : "export"));
+        }
+    }
+
+    /**
+     * Adds the number of particles entered by the user into one division.
+     *
+     * @param particleChoice Radiobuttons for the particle to add.
+     * @param numberToAdd Field holding the number of particles to add.
+     * @param hint Left (-1) or Right (1).
+     */
+    private void addParticles(RadioButton[] particleChoice, TextField numberToAdd, int hint){
+        int number;
+        try {
+            number = Integer.parseInt(numberToAdd.getText());
+        } catch (NumberFormatException e){
+            JOptionPane.showMessageDialog(null,resourceBundle.getString("pleaseEnterValidNumbers")+"!");
+            return;
+        }
+        //Particle 1 or particle 2 - the particles are added by the simulation thread, which reports back how many it managed to add
+        controller.addParticles(particleChoice[0].isSelected() ? 1 : 2, hint, number).thenAccept(added -> Platform.runLater(() -> {
+            //If not all particles could be added due to limits, only showing of message is needed
+            //simulation is therefore not reset and continues upon clicking ok
+            if (added < number){
+                controller.pauseSimulation();
+                if (controller.getParticleCount() >= MAX_PARTICLES){
+                    JOptionPane.showMessageDialog(null,resourceBundle.getString("maxParticles"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
+                } else {
+                    JOptionPane.showMessageDialog(null,resourceBundle.getString("noSpace"),resourceBundle.getString("error"),JOptionPane.ERROR_MESSAGE);
+                }
+                controller.playSimulation();
+            }
+        }));
+    }
+
+    /**
+     * Removes the number of particles entered from a division while the simulation runs, without setting it up again.
+     *
+     * @param particleChoice Radiobuttons of the division.
+     * @param numberToRemove Field holding the number of particles.
+     * @param hint Left (-1) or Right (1).
+     */
+    private void removeParticles(RadioButton[] particleChoice, TextField numberToRemove, int hint){
+        int number;
+        try {
+            number = Integer.parseInt(numberToRemove.getText());
+        } catch (NumberFormatException e){
+            JOptionPane.showMessageDialog(null,resourceBundle.getString("pleaseEnterValidNumbers")+"!");
+            return;
+        }
+        //Removing fewer particles than asked for (the division ran out of them) is not an error
+        controller.removeParticles(particleChoice[0].isSelected() ? 1 : 2, hint, number);
+    }
+
     /**
      * Sets up the prompt for particle size.
      *
@@ -343,7 +624,7 @@ public class Main extends Application implements SimulationLimits{
                 if (Integer.parseInt(desiredParticleSize1.getText()) >= MIN_SIZE && Integer.parseInt(desiredParticleSize1.getText()) <= MAX_SIZE &&
                         Integer.parseInt(desiredParticleSize2.getText()) >= MIN_SIZE && Integer.parseInt(desiredParticleSize2.getText()) <= MAX_SIZE) {
                     controller = new Controller(Integer.parseInt(desiredParticleSize1.getText()), Integer.parseInt(desiredParticleSize2.getText()));
-                    controller.setToUpdate(countdown, noOfParticle1in1, noOfParticle2in1, noOfParticle1in2, noOfParticle2in2);
+                    controller.setToUpdate(countdown, noOfParticle1in1, noOfParticle2in1, noOfParticle1in2, noOfParticle2in2, equilibrium, statistics, chart);
                     controller.initializeSimulationArea();
                     setSimulation(primaryStage);
                     state = 2;
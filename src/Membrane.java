@@ -0,0 +1,151 @@
+/**
+ * Geometry of the membrane in the equator of the simulation area, compiled once whenever the engine is initialized.
+ *
+ * The membrane is a column of solid blocks centered on the equator, separated by pores. Each block is kept as a vertical interval,
+ * sorted from top to bottom in primitive arrays, so the blocks near a point are found by binary search
+ * however many blocks there are and whatever their heights.
+ * Instances are never modified, so they are shared with the snapshots of the engine.
+ */
+final class Membrane {
+
+    //Blocks span from -halfWidth to halfWidth horizontally
+    private final double halfWidth;
+    //Block j spans from top[j] to bottom[j] vertically, with bottom[j] < top[j+1]
+    private final double[] top, bottom;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param width Width of every block.
+     * @param top Top of each block, from top to bottom.
+     * @param bottom Bottom of each block, from top to bottom. Blocks must not overlap.
+     */
+    Membrane(double width, double[] top, double[] bottom){
+        this.halfWidth = width/2;
+        this.top = top;
+        this.bottom = bottom;
+    }
+
+    /**
+     * Lays out blocks of equal height between pores of equal height, as many pores as asked for.
+     *
+     * @param height Height of the simulation area.
+     * @param width Width of every block.
+     * @param pores Number of pores.
+     * @param poreHeight Height of every pore.
+     */
+    static Membrane evenlySpaced(int height, int width, int pores, int poreHeight){
+        double blockHeight;
+        double[] blockY;
+        //If there should be no pores, a single block covers the whole of the mid-region
+        if (pores == 0){
+            blockHeight = height;
+            blockY = new double[]{0};
+        //If there should be a single pore, two blocks at the extremes leave a space between them
+        } else if (pores == 1){
+            blockHeight = (height-poreHeight)/2;
+            blockY = new double[]{-height/2+(height-poreHeight)/4, height/2-(height-poreHeight)/4};
+        //If there should be more than one pore, the two extremes are pores and any remaining pores are formed between two subsequent blocks
+        } else {
+            blockHeight = (height-pores*poreHeight)/(pores-1);
+            blockY = new double[pores-1];
+            for (int i = 1; i < pores; i++){
+                blockY[i-1] = 0-height/2+blockHeight/2+poreHeight*i+blockHeight*(i-1);
+            }
+        }
+
+        double[] top = new double[blockY.length], bottom = new double[blockY.length];
+        for (int j = 0; j < blockY.length; j++){
+            top[j] = blockY[j]-blockHeight/2;
+            bottom[j] = blockY[j]+blockHeight/2;
+        }
+        //With fewer than 2 pores, the blocks at the extremes reach the top and bottom of the area - they are extended past it,
+        //so that a particle pushed slightly out of the area can not slip around them
+        if (pores < 2){
+            top[0] = -height/2.0-height;
+            bottom[blockY.length-1] = height/2.0+height;
+        }
+        return new Membrane(width, top, bottom);
+    }
+
+    int getBlockCount(){
+        return top.length;
+    }
+
+    double getHalfWidth(){
+        return halfWidth;
+    }
+
+    double getTop(int j){
+        return top[j];
+    }
+
+    double getBottom(int j){
+        return bottom[j];
+    }
+
+    /**
+     * @return whether a point is horizontally within {@code reach} of the blocks.
+     */
+    boolean isAlongside(double x, double reach){
+        return x >= -halfWidth-reach && x <= halfWidth+reach;
+    }
+
+    /**
+     * Blocks from the one returned onwards, up to the first one starting below a point, are all the blocks vertically between {@code y} and that point.
+     *
+     * @return first block that does not end above {@code y}, or the number of blocks if there is none.
+     */
+    int firstBlockFrom(double y){
+        int low = 0, high = bottom.length;
+        while (low < high){
+            int mid = (low+high) >>> 1;
+            if (bottom[mid] < y){
+                low = mid+1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return squared distance from a point to block {@code j}, 0 if the point is inside the block.
+     */
+    double distanceSquared(int j, double x, double y){
+        double dx = x-Math.max(-halfWidth, Math.min(halfWidth, x));
+        double dy = y-Math.max(top[j], Math.min(bottom[j], y));
+        return dx*dx+dy*dy;
+    }
+
+    /**
+     * The normal of block {@code j} facing a point is the direction from the point of the surface of the block nearest to it to the point
+     * (which is perpendicular to a face, or points away from a corner). The normal is not of unit length.
+     * A point inside the block (a particle that moved deep into it within a single update duration) is pushed back to the side
+     * of the membrane it is on, so that it can never go through a block.
+     *
+     * @return horizontal component of the normal of block {@code j} facing ({@code x}, {@code y}).
+     */
+    double normalX(int j, double x, double y){
+        double dx = x-Math.max(-halfWidth, Math.min(halfWidth, x));
+        if (dx != 0 || !isInside(j, x, y)){
+            return dx;
+        }
+        return x < 0 ? -1 : 1;
+    }
+
+    /**
+     * @return vertical component of the normal of block {@code j} facing ({@code x}, {@code y}) - see {@link #normalX(int, double, double)}.
+     */
+    double normalY(int j, double x, double y){
+        double dy = y-Math.max(top[j], Math.min(bottom[j], y));
+        if (dy != 0 || !isInside(j, x, y)){
+            return dy;
+        }
+        return 0;
+    }
+
+    private boolean isInside(int j, double x, double y){
+        return x >= -halfWidth && x <= halfWidth && y >= top[j] && y <= bottom[j];
+    }
+}
@@ -0,0 +1,234 @@
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@code ParticleStore} keeping each column in a segment of native memory, using the Foreign Memory API.
+ *
+ * All segments belong to a single shared scope, opened along with the store and closed when the capacity changes (the particles are then copied
+ * into segments of a new scope) or when the store is closed. The scope is shared so that the threads of the engine's pool can reach the particles.
+ *
+ * Compiling and loading this class needs {@code --add-modules jdk.incubator.foreign}; it is only loaded by {@link ParticleStore#offHeap(int)}
+ * once the module is known to be present. {@code ResourceScope} and {@code MemoryAccess} only exist in the incubator module of JDK 17
+ * (later releases replaced them), so the sources only compile with JDK 17.
+ */
+final class NativeParticleStore implements ParticleStore {
+
+    private ResourceScope scope;
+    private int capacity;
+    private MemorySegment x, y;
+    private MemorySegment vX, vY;
+    private MemorySegment radius;
+    private MemorySegment species;
+    private MemorySegment buffer;
+    private MemorySegment lastCollide;
+    private MemorySegment clock;
+    private MemorySegment collisions;
+    private MemorySegment id;
+
+    NativeParticleStore(int capacity){
+        this.capacity = capacity;
+        scope = ResourceScope.newSharedScope();
+        x = allocate(Double.BYTES);
+        y = allocate(Double.BYTES);
+        vX = allocate(Double.BYTES);
+        vY = allocate(Double.BYTES);
+        radius = allocate(Double.BYTES);
+        species = allocate(Integer.BYTES);
+        buffer = allocate(Integer.BYTES);
+        lastCollide = allocate(Integer.BYTES);
+        clock = allocate(Double.BYTES);
+        collisions = allocate(Integer.BYTES);
+        id = allocate(Integer.BYTES);
+    }
+
+    /**
+     * @return a new segment of the current scope holding {@code capacity} values of {@code bytes} bytes each.
+     */
+    private MemorySegment allocate(int bytes){
+        return MemorySegment.allocateNative((long)bytes*capacity, bytes, scope);
+    }
+
+    /**
+     * @return a new segment of the current scope holding {@code capacity} values, starting with those of {@code old}.
+     */
+    private MemorySegment copy(MemorySegment old, int bytes){
+        MemorySegment copy = allocate(bytes);
+        copy.copyFrom(old.asSlice(0, Math.min(old.byteSize(), copy.byteSize())));
+        return copy;
+    }
+
+    @Override
+    public int getCapacity(){
+        return capacity;
+    }
+
+    @Override
+    public void setCapacity(int capacity){
+        ResourceScope old = scope;
+        this.capacity = capacity;
+        scope = ResourceScope.newSharedScope();
+        x = copy(x, Double.BYTES);
+        y = copy(y, Double.BYTES);
+        vX = copy(vX, Double.BYTES);
+        vY = copy(vY, Double.BYTES);
+        radius = copy(radius, Double.BYTES);
+        species = copy(species, Integer.BYTES);
+        buffer = copy(buffer, Integer.BYTES);
+        lastCollide = copy(lastCollide, Integer.BYTES);
+        clock = copy(clock, Double.BYTES);
+        collisions = copy(collisions, Integer.BYTES);
+        id = copy(id, Integer.BYTES);
+        old.close();
+    }
+
+    @Override
+    public double getX(int i){
+        return MemoryAccess.getDoubleAtIndex(x, i);
+    }
+
+    @Override
+    public void setX(int i, double x){
+        MemoryAccess.setDoubleAtIndex(this.x, i, x);
+    }
+
+    @Override
+    public double getY(int i){
+        return MemoryAccess.getDoubleAtIndex(y, i);
+    }
+
+    @Override
+    public void setY(int i, double y){
+        MemoryAccess.setDoubleAtIndex(this.y, i, y);
+    }
+
+    @Override
+    public double getVX(int i){
+        return MemoryAccess.getDoubleAtIndex(vX, i);
+    }
+
+    @Override
+    public void setVX(int i, double vX){
+        MemoryAccess.setDoubleAtIndex(this.vX, i, vX);
+    }
+
+    @Override
+    public double getVY(int i){
+        return MemoryAccess.getDoubleAtIndex(vY, i);
+    }
+
+    @Override
+    public void setVY(int i, double vY){
+        MemoryAccess.setDoubleAtIndex(this.vY, i, vY);
+    }
+
+    @Override
+    public double getRadius(int i){
+        return MemoryAccess.getDoubleAtIndex(radius, i);
+    }
+
+    @Override
+    public void setRadius(int i, double radius){
+        MemoryAccess.setDoubleAtIndex(this.radius, i, radius);
+    }
+
+    @Override
+    public int getSpecies(int i){
+        return MemoryAccess.getIntAtIndex(species, i);
+    }
+
+    @Override
+    public void setSpecies(int i, int species){
+        MemoryAccess.setIntAtIndex(this.species, i, species);
+    }
+
+    @Override
+    public int getBuffer(int i){
+        return MemoryAccess.getIntAtIndex(buffer, i);
+    }
+
+    @Override
+    public void setBuffer(int i, int buffer){
+        MemoryAccess.setIntAtIndex(this.buffer, i, buffer);
+    }
+
+    @Override
+    public int getLastCollide(int i){
+        return MemoryAccess.getIntAtIndex(lastCollide, i);
+    }
+
+    @Override
+    public void setLastCollide(int i, int lastCollide){
+        MemoryAccess.setIntAtIndex(this.lastCollide, i, lastCollide);
+    }
+
+    @Override
+    public double getClock(int i){
+        return MemoryAccess.getDoubleAtIndex(clock, i);
+    }
+
+    @Override
+    public void setClock(int i, double clock){
+        MemoryAccess.setDoubleAtIndex(this.clock, i, clock);
+    }
+
+    @Override
+    public int getCollisions(int i){
+        return MemoryAccess.getIntAtIndex(collisions, i);
+    }
+
+    @Override
+    public void setCollisions(int i, int collisions){
+        MemoryAccess.setIntAtIndex(this.collisions, i, collisions);
+    }
+
+    @Override
+    public int getId(int i){
+        return MemoryAccess.getIntAtIndex(id, i);
+    }
+
+    @Override
+    public void setId(int i, int id){
+        MemoryAccess.setIntAtIndex(this.id, i, id);
+    }
+
+    @Override
+    public void write(ByteBuffer out, int count){
+        //Buffers convert between the native byte order of the segments and the byte order of out
+        for (MemorySegment column : new MemorySegment[]{x, y, vX, vY, radius}){
+            out.asDoubleBuffer().put(view(column, Double.BYTES, count).asDoubleBuffer());
+            out.position(out.position()+Double.BYTES*count);
+        }
+        for (MemorySegment column : new MemorySegment[]{species, buffer, lastCollide, id}){
+            out.asIntBuffer().put(view(column, Integer.BYTES, count).asIntBuffer());
+            out.position(out.position()+Integer.BYTES*count);
+        }
+    }
+
+    @Override
+    public void read(ByteBuffer in, int count){
+        for (MemorySegment column : new MemorySegment[]{x, y, vX, vY, radius}){
+            view(column, Double.BYTES, count).asDoubleBuffer().put(in.asDoubleBuffer().limit(count));
+            in.position(in.position()+Double.BYTES*count);
+        }
+        for (MemorySegment column : new MemorySegment[]{species, buffer, lastCollide, id}){
+            view(column, Integer.BYTES, count).asIntBuffer().put(in.asIntBuffer().limit(count));
+            in.position(in.position()+Integer.BYTES*count);
+        }
+    }
+
+    /**
+     * @return the first {@code count} values of a column, as a buffer in native byte order.
+     */
+    private static ByteBuffer view(MemorySegment column, int bytes, int count){
+        return column.asSlice(0, (long)bytes*count).asByteBuffer().order(ByteOrder.nativeOrder());
+    }
+
+    @Override
+    public void close(){
+        scope.close();
+    }
+}
@@ -4,27 +4,77 @@ import java.util.ArrayList;
  * Created by Catz on 4/12/14.
  *
  * Wrapper class for managing a collection of some object.
+ *
+ * Objects that are removed are kept as spares to be reused rather than dropped, so that a collection that shrinks and grows again
+ * (particles removed and added while a simulation runs) does not create new objects or garbage. Objects in use are kept at the front,
+ * in indices 0 to {@link #getNumber()}-1, and removing one moves the last object in use into its index, so that removal takes constant time.
  */
 class ObjectManager<T> {
     private ArrayList<T> all;
+    //Number of objects in use - objects from this index onwards are spares
+    private int number;
 
     ObjectManager(){
         all = new ArrayList<T>();
     }
 
+    /**
+     * Adds a new object in use, after the others in use.
+     */
     void add(T object){
         all.add(object);
+        //Spares are kept after the objects in use
+        if (number < all.size()-1){
+            all.set(all.size()-1, all.get(number));
+            all.set(number, object);
+        }
+        number++;
+    }
+
+    /**
+     * Puts a spare object back in use, after the others in use.
+     *
+     * @return the object, or null if there are no spares (a new object is then to be added by {@link #add(Object)}).
+     */
+    T reuse(){
+        if (number == all.size()){
+            return null;
+        }
+        return all.get(number++);
+    }
+
+    /**
+     * Takes the object at index {@code i} out of use and keeps it as a spare. The last object in use takes its index.
+     *
+     * @return the object taken out of use.
+     */
+    T remove(int i){
+        T object = all.get(i);
+        number--;
+        all.set(i, all.get(number));
+        all.set(number, object);
+        return object;
     }
 
+    /**
+     * Forgets every object, spares included.
+     */
     void clearAll(){
         all.clear();
+        number = 0;
     }
 
-    ArrayList<T> getAll(){
-        return all;
+    /**
+     * @return object in use at index {@code i}.
+     */
+    T get(int i){
+        return all.get(i);
     }
 
+    /**
+     * @return number of objects in use.
+     */
     int getNumber(){
-        return all.size();
+        return number;
     }
 }
@@ -0,0 +1,209 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Every combination of settings a {@code BatchRunner} goes through, read from a sweep spec.
+ *
+ * A spec is a properties file. Each setting of a run is given either as a single value, a list ({@code 200, 400, 600})
+ * or a range ({@code 1..10}, or {@code 0.5..5:0.5} with a step other than 1):
+ * height, width, pores, speed, size1 and size2 (radius of particle 1 and 2), and left1, right1, left2 and right2
+ * (number of particle 1 and 2 added to the left and right division). Settings left out keep the defaults of the GUI.
+ * The spec also gives the number of repetitions of every combination, the number of updates each run goes through (ticks),
+ * how close to equal concentrations counts as equilibrium (tolerance, in %), the number of updates over which equilibrium is judged (window),
+ * whether runs stop once at equilibrium (stopAtEquilibrium), the seed all runs are derived from and the number of threads.
+ */
+class ParameterSweep implements SimulationLimits {
+
+    /**
+     * Settings of a single run.
+     */
+    static final class Run {
+        final int index, repetition;
+        final int height, width, pores;
+        final double speed;
+        final int size1, size2;
+        final int left1, right1, left2, right2;
+        final long seed;
+
+        Run(int index, int repetition, int height, int width, int pores, double speed, int size1, int size2,
+            int left1, int right1, int left2, int right2, long seed){
+            this.index = index;
+            this.repetition = repetition;
+            this.height = height;
+            this.width = width;
+            this.pores = pores;
+            this.speed = speed;
+            this.size1 = size1;
+            this.size2 = size2;
+            this.left1 = left1;
+            this.right1 = right1;
+            this.left2 = left2;
+            this.right2 = right2;
+            this.seed = seed;
+        }
+    }
+
+    //Largest number of runs a sweep may have, so that a mistyped range does not fill the memory
+    private static final int maxRuns = 1_000_000;
+
+    private final List<Run> runs = new ArrayList<>();
+    private final long ticks;
+    private final double tolerance;
+    private final int window;
+    private final boolean stopAtEquilibrium;
+    private final int threads;
+
+    /**
+     * Reads a spec and works out every run of it.
+     *
+     * @param spec Spec in the properties format.
+     * @throws IOException if the spec can not be read.
+     * @throws IllegalArgumentException if a value is not understood or is beyond the limits of the simulation.
+     */
+    ParameterSweep(Reader spec) throws IOException {
+        Properties properties = new Properties();
+        properties.load(spec);
+        double[] heights = values(properties, "height", "200", MIN_HEIGHT, MAX_HEIGHT);
+        double[] widths = values(properties, "width", "400", MIN_WIDTH, MAX_WIDTH);
+        double[] pores = values(properties, "pores", "3", MIN_PORES, MAX_PORES);
+        double[] speeds = values(properties, "speed", "1", MIN_SPEED, MAX_SPEED);
+        double[] sizes1 = values(properties, "size1", "5", MIN_SIZE, MAX_SIZE);
+        double[] sizes2 = values(properties, "size2", "5", MIN_SIZE, MAX_SIZE);
+        double[] left1 = values(properties, "left1", "100", 0, MAX_PARTICLES);
+        double[] right1 = values(properties, "right1", "0", 0, MAX_PARTICLES);
+        double[] left2 = values(properties, "left2", "0", 0, MAX_PARTICLES);
+        double[] right2 = values(properties, "right2", "100", 0, MAX_PARTICLES);
+        int repetitions = (int)single(properties, "repetitions", "1", 1, maxRuns);
+        ticks = (long)single(properties, "ticks", "50000", 1, Long.MAX_VALUE);
+        tolerance = single(properties, "tolerance", "5", 0, 50);
+        window = (int)single(properties, "window", "1000", 1, Integer.MAX_VALUE);
+        stopAtEquilibrium = Boolean.parseBoolean(properties.getProperty("stopAtEquilibrium", "false").trim());
+        threads = (int)single(properties, "threads", Integer.toString(Runtime.getRuntime().availableProcessors()), 1, 1024);
+        String seed = properties.getProperty("seed");
+        SplittableRandom seeds;
+        try {
+            seeds = new SplittableRandom(seed == null ? new SplittableRandom().nextLong() : Long.parseLong(seed.trim()));
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("Invalid value for seed: "+seed);
+        }
+
+        //Every combination of values, the last setting changing fastest
+        double[][] settings = {heights, widths, pores, speeds, sizes1, sizes2, left1, right1, left2, right2};
+        long combinations = 1;
+        for (double[] values : settings){
+            combinations *= values.length;
+            if (combinations*repetitions > maxRuns){
+                throw new IllegalArgumentException("Sweep has more than "+maxRuns+" runs");
+            }
+        }
+        double[] v = new double[settings.length];
+        for (int c = 0; c < combinations; c++){
+            int rest = c;
+            for (int k = settings.length-1; k >= 0; k--){
+                v[k] = settings[k][rest % settings[k].length];
+                rest /= settings[k].length;
+            }
+            if (!SimulationEngine.canContainPores((int)v[0], (int)v[2])){
+                throw new IllegalArgumentException("Height "+(int)v[0]+" is too small to contain "+(int)v[2]+" pores");
+            }
+            for (int r = 0; r < repetitions; r++){
+                runs.add(new Run(runs.size(), r, (int)v[0], (int)v[1], (int)v[2], v[3], (int)v[4], (int)v[5],
+                        (int)v[6], (int)v[7], (int)v[8], (int)v[9], seeds.nextLong()));
+            }
+        }
+    }
+
+    List<Run> getRuns(){
+        return runs;
+    }
+
+    /**
+     * @return number of updates each run goes through.
+     */
+    long getTicks(){
+        return ticks;
+    }
+
+    /**
+     * @return largest difference (in %) between the concentration of a particle in a division and 50% that counts as equilibrium.
+     */
+    double getTolerance(){
+        return tolerance;
+    }
+
+    /**
+     * @return number of updates in each window of an {@code EquilibriumDetector}.
+     */
+    int getWindow(){
+        return window;
+    }
+
+    /**
+     * @return whether runs stop as soon as they reach equilibrium.
+     */
+    boolean isStopAtEquilibrium(){
+        return stopAtEquilibrium;
+    }
+
+    int getThreads(){
+        return threads;
+    }
+
+    /**
+     * @return every value of a setting, each checked against the limits given.
+     */
+    private static double[] values(Properties properties, String key, String defaultValue, double min, double max){
+        String value = properties.getProperty(key, defaultValue).trim();
+        double[] values;
+        try {
+            int range = value.indexOf("..");
+            if (range >= 0){
+                int colon = value.indexOf(':', range);
+                double from = Double.parseDouble(value.substring(0, range).trim());
+                double to = Double.parseDouble(value.substring(range+2, colon < 0 ? value.length() : colon).trim());
+                double step = colon < 0 ? 1 : Double.parseDouble(value.substring(colon+1).trim());
+                if (step <= 0 || to < from){
+                    throw new IllegalArgumentException("Empty range for "+key+": "+value);
+                }
+                //A small margin keeps the end of the range despite rounding of the step
+                double count = Math.floor((to-from)/step+1e-9)+1;
+                if (count > maxRuns){
+                    throw new IllegalArgumentException("Too many values for "+key+": "+value);
+                }
+                values = new double[(int)count];
+                for (int i = 0; i < count; i++){
+                    values[i] = from+i*step;
+                }
+            } else {
+                String[] items = value.split(",");
+                values = new double[items.length];
+                for (int i = 0; i < items.length; i++){
+                    values[i] = Double.parseDouble(items[i].trim());
+                }
+            }
+        } catch (NumberFormatException e){
+            throw new IllegalArgumentException("Invalid value for "+key+": "+value);
+        }
+        for (double v : values){
+            if (v < min || v > max){
+                throw new IllegalArgumentException(key+" must be between "+min+" and "+max+": "+v);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return value of a setting that takes a single value.
+     */
+    static double single(Properties properties, String key, String defaultValue, double min, double max){
+        double[] values = values(properties, key, defaultValue, min, max);
+        if (values.length != 1){
+            throw new IllegalArgumentException(key+" takes a single value");
+        }
+        return values[0];
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Loops of the fixed time step mode that go over a range of particles doing the same work for each one, without looking at any other particle.
+ *
+ * They are kept apart from {@code SimulationEngine} so that they can be done on several particles at once with SIMD instructions
+ * ({@code VectorKernel}) where the Vector API is available, and one particle at a time ({@code ScalarKernel}) where it is not.
+ * Every implementation gives exactly the same results, down to the last bit, on particles held in any {@code ParticleStore}.
+ */
+interface ParticleKernel {
+
+    /**
+     * Moves particles {@code from} to {@code to-1} along their direction and counts those crossing the equator.
+     *
+     * @param speed Distance every particle moves.
+     * @param rightDelta Change in the number of particles of each species in the right division (x >= 0), added to.
+     * @return number of particles that crossed the equator.
+     */
+    int integrate(ParticleStore particles, int from, int to, double speed, int[] rightDelta);
+
+    /**
+     * Counts down the update durations before particles {@code from} to {@code to-1} can collide again with the last particle they collided with.
+     * A countdown reaching 0 starts again from {@code reset} and clears the last collision.
+     */
+    void countDown(ParticleStore particles, int from, int to, int reset);
+
+    /**
+     * Flips the direction of particles {@code from} to {@code to-1} along each axis where they touch a wall of the area and still move towards it.
+     *
+     * @param halfWidth Distance from the center to the left and right walls.
+     * @param halfHeight Distance from the center to the top and bottom walls.
+     * @return number of particles that bounced off a wall.
+     */
+    int reflectOffWalls(ParticleStore particles, int from, int to, double halfWidth, double halfHeight);
+
+    /**
+     * Finds the next particle horizontally close enough to the membrane to touch it (see {@code Membrane.isAlongside}).
+     *
+     * @param halfWidth Half the width of the membrane.
+     * @return first particle from {@code from} to {@code to-1} within reach of the membrane, or {@code to} if there is none.
+     */
+    int nextAlongside(ParticleStore particles, int from, int to, double halfWidth);
+
+    /**
+     * @return a kernel going through one particle at a time.
+     */
+    static ParticleKernel scalar(){
+        return new ScalarKernel();
+    }
+
+    /**
+     * @return the fastest kernel available - vectorized if the Vector API module is present (it is only resolved with
+     * {@code --add-modules jdk.incubator.vector}) and the processor handles more than one double at once, scalar otherwise.
+     */
+    static ParticleKernel fastest(){
+        //VectorKernel is only loaded once the module is known to be present
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent() && VectorKernel.isWorthwhile()){
+            return new VectorKernel();
+        }
+        return scalar();
+    }
+}
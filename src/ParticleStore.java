@@ -0,0 +1,132 @@
+import java.nio.ByteBuffer;
+
+/**
+ * State of every particle of a {@code SimulationEngine}, in structure-of-arrays layout - particle i is described by the i-th element of each column.
+ *
+ * Columns are either primitive arrays on the heap ({@code HeapParticleStore}) or native memory outside of it ({@code NativeParticleStore}),
+ * in which case the garbage collector has no particle columns to copy. This is only the larger part of the memory of the engine per particle
+ * (68 bytes): the random streams, the grids and the event queue of the engine, and the few {@code FrameSnapshot}s being read, stay on the heap
+ * and still grow with the number of particles. Snapshots are reused rather than allocated for every published state, so the heap does not fill
+ * with copies of the particles either way.
+ * Native memory is only freed by {@link #close()}, after which the store must not be used any more.
+ *
+ * Different particles may be read and written by different threads at once, as long as no two threads write the same particle.
+ */
+interface ParticleStore extends AutoCloseable {
+
+    /**
+     * @return number of particles the store is able to hold.
+     */
+    int getCapacity();
+
+    /**
+     * Changes the number of particles the store is able to hold, keeping existing particles (those that still fit).
+     */
+    void setCapacity(int capacity);
+
+    double getX(int i);
+
+    void setX(int i, double x);
+
+    double getY(int i);
+
+    void setY(int i, double y);
+
+    double getVX(int i);
+
+    void setVX(int i, double vX);
+
+    double getVY(int i);
+
+    void setVY(int i, double vY);
+
+    double getRadius(int i);
+
+    void setRadius(int i, double radius);
+
+    /**
+     * @return 0 for particle 1 and 1 for particle 2.
+     */
+    int getSpecies(int i);
+
+    void setSpecies(int i, int species);
+
+    /**
+     * @return number of update durations left before the particle can collide again with the particle it last collided with.
+     */
+    int getBuffer(int i);
+
+    void setBuffer(int i, int buffer);
+
+    /**
+     * @return id of the particle this particle last collided with (-1 if none).
+     */
+    int getLastCollide(int i);
+
+    void setLastCollide(int i, int lastCollide);
+
+    /**
+     * @return time up to which the position of the particle is up to date (event-driven mode only).
+     */
+    double getClock(int i);
+
+    void setClock(int i, double clock);
+
+    /**
+     * @return number of collisions the particle went through (event-driven mode only).
+     */
+    int getCollisions(int i);
+
+    void setCollisions(int i, int collisions);
+
+    /**
+     * @return identity of the particle, which unlike its index stays the same when other particles are removed
+     * or when the particle is moved to another engine.
+     */
+    int getId(int i);
+
+    void setId(int i, int id);
+
+    /**
+     * Writes the first {@code count} particles, column by column (positions, directions, radii, species, buffers, last collisions and ids),
+     * each column in bulk and in the byte order of {@code out}.
+     */
+    void write(ByteBuffer out, int count);
+
+    /**
+     * Reads {@code count} particles written by {@link #write(ByteBuffer, int)} into the first elements of each column.
+     * The store has to be able to hold them already.
+     */
+    void read(ByteBuffer in, int count);
+
+    /**
+     * Frees the memory holding the particles.
+     */
+    @Override
+    void close();
+
+    /**
+     * @return a store keeping its columns in arrays on the heap.
+     */
+    static ParticleStore onHeap(int capacity){
+        return new HeapParticleStore(capacity);
+    }
+
+    /**
+     * @return a store keeping its columns in native memory if that is possible (see {@link #isOffHeapAvailable()}), on the heap otherwise.
+     */
+    static ParticleStore offHeap(int capacity){
+        //NativeParticleStore is only loaded once the module is known to be present
+        if (isOffHeapAvailable()){
+            return new NativeParticleStore(capacity);
+        }
+        return onHeap(capacity);
+    }
+
+    /**
+     * @return whether the Foreign Memory API module is present - it is only resolved with {@code --add-modules jdk.incubator.foreign}.
+     */
+    static boolean isOffHeapAvailable(){
+        return ModuleLayer.boot().findModule("jdk.incubator.foreign").isPresent();
+    }
+}
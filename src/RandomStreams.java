@@ -0,0 +1,134 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Source of all the randomness of the simulation, derived from a single seed.
+ *
+ * Holds any number of independent streams, each of which is only ever used by one thread at a time (e.g. one stream per particle),
+ * so that the numbers drawn do not depend on how work is split between threads.
+ * Streams use the algorithm of {@code java.util.SplittableRandom} (SplitMix64), with their state kept in a primitive array
+ * so that drawing a number never allocates.
+ */
+final class RandomStreams {
+
+    //Increment of the state of every stream (odd, so that every state is visited once per period)
+    private static final long gamma = 0x9e3779b97f4a7c15L;
+
+    private long seed;
+    //Number of streams started since the last reseed - every stream is started from a different point
+    private long started;
+    private long[] state;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param seed Seed all streams are derived from.
+     * @param capacity Number of streams.
+     */
+    RandomStreams(long seed, int capacity){
+        state = new long[capacity];
+        reseed(seed);
+    }
+
+    /**
+     * Changes the seed. Streams have to be started again before they are used.
+     */
+    void reseed(long seed){
+        this.seed = seed;
+        started = 0;
+    }
+
+    long getSeed(){
+        return seed;
+    }
+
+    /**
+     * Changes the number of streams, keeping the state of existing ones.
+     */
+    void setCapacity(int capacity){
+        state = Arrays.copyOf(state, capacity);
+    }
+
+    /**
+     * Writes the seed and the state of the first {@code streams} streams, to be read back by {@link #readState(ByteBuffer)}.
+     */
+    void writeState(ByteBuffer out, int streams){
+        out.putLong(seed).putLong(started).putInt(streams);
+        out.asLongBuffer().put(state, 0, streams);
+        out.position(out.position()+8*streams);
+    }
+
+    /**
+     * Reads the seed and the state of streams written by {@link #writeState(ByteBuffer, int)}, growing the number of streams if needed.
+     * The streams read draw the same numbers from then on as they would have drawn when written.
+     */
+    void readState(ByteBuffer in){
+        seed = in.getLong();
+        started = in.getLong();
+        int streams = in.getInt();
+        if (state.length < streams){
+            setCapacity(streams);
+        }
+        in.asLongBuffer().get(state, 0, streams);
+        in.position(in.position()+8*streams);
+    }
+
+    /**
+     * @return number of bytes {@link #writeState(ByteBuffer, int)} writes for {@code streams} streams.
+     */
+    static long stateLength(int streams){
+        return 20+8L*streams;
+    }
+
+    /**
+     * @return state of stream {@code s}, from which it goes on drawing the same numbers once given back by {@link #setState(int, long)}.
+     */
+    long getState(int s){
+        return state[s];
+    }
+
+    /**
+     * Puts stream {@code s} in a state given by {@link #getState(int)}, possibly of another instance.
+     */
+    void setState(int s, long state){
+        this.state[s] = state;
+    }
+
+    /**
+     * Starts stream {@code s} afresh, independently of all other streams started since the last reseed.
+     */
+    void start(int s){
+        started++;
+        state[s] = mix(seed+mix(started*gamma));
+    }
+
+    /**
+     * @return next 64 random bits of stream {@code s}.
+     */
+    long nextLong(int s){
+        return mix(state[s] += gamma);
+    }
+
+    /**
+     * @return next random integer of stream {@code s} between 0 (inclusive) and {@code bound} (exclusive).
+     */
+    int nextInt(int s, int bound){
+        return (int)(((nextLong(s) >>> 32)*bound) >>> 32);
+    }
+
+    /**
+     * @return next random number of stream {@code s} between 0 (inclusive) and 1 (exclusive).
+     */
+    double nextDouble(int s){
+        return (nextLong(s) >>> 11)*0x1.0p-53;
+    }
+
+    /**
+     * Scrambles the bits of a state of a stream into a random number (variant 13 of the MurmurHash3 finalizer, as used by {@code SplittableRandom}).
+     */
+    private static long mix(long z){
+        z = (z ^ (z >>> 30))*0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27))*0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * {@code ParticleKernel} going through one particle at a time, used where the Vector API is not available and for particles held off the heap.
+ */
+final class ScalarKernel implements ParticleKernel {
+
+    @Override
+    public int integrate(ParticleStore particles, int from, int to, double speed, int[] rightDelta){
+        int crossings = 0;
+        for (int i = from; i < to; i++){
+            double x = particles.getX(i);
+            boolean wasRight = x >= 0;
+            x += particles.getVX(i)*speed;
+            particles.setX(i, x);
+            particles.setY(i, particles.getY(i)+particles.getVY(i)*speed);
+            if (wasRight != x >= 0){
+                rightDelta[particles.getSpecies(i)] += wasRight ? -1 : 1;
+                crossings++;
+            }
+        }
+        return crossings;
+    }
+
+    @Override
+    public void countDown(ParticleStore particles, int from, int to, int reset){
+        for (int i = from; i < to; i++){
+            int buffer = particles.getBuffer(i)-1;
+            if (buffer == 0){
+                buffer = reset;
+                particles.setLastCollide(i, -1);
+            }
+            particles.setBuffer(i, buffer);
+        }
+    }
+
+    @Override
+    public int reflectOffWalls(ParticleStore particles, int from, int to, double halfWidth, double halfHeight){
+        int bounced = 0;
+        for (int i = from; i < to; i++){
+            double x = particles.getX(i), y = particles.getY(i), r = particles.getRadius(i);
+            double vX = particles.getVX(i), vY = particles.getVY(i);
+            boolean bounce = false;
+            if ((x >= halfWidth-r && vX > 0) || (x <= -halfWidth+r && vX < 0)){
+                particles.setVX(i, -vX);
+                bounce = true;
+            }
+            if ((y >= halfHeight-r && vY > 0) || (y <= -halfHeight+r && vY < 0)){
+                particles.setVY(i, -vY);
+                bounce = true;
+            }
+            if (bounce){
+                bounced++;
+            }
+        }
+        return bounced;
+    }
+
+    @Override
+    public int nextAlongside(ParticleStore particles, int from, int to, double halfWidth){
+        for (int i = from; i < to; i++){
+            double x = particles.getX(i), r = particles.getRadius(i);
+            if (x >= -halfWidth-r && x <= halfWidth+r){
+                return i;
+            }
+        }
+        return to;
+    }
+}
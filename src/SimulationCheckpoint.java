@@ -0,0 +1,121 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Complete state of a simulation saved in a file, from which the simulation can be resumed exactly where it was saved.
+ *
+ * The file starts with a header: magic, version, height and width of the area, number of pores, speed, whether collisions are event-driven
+ * and the countdown till the next direction reset. It is followed by the state written by {@code SimulationEngine}:
+ * tick, number of particles, id of the next particle added, the state of the randomness, and each array of particle state one after the other.
+ * Values are little-endian and the file is read and written through a memory mapping, so whole arrays are copied in bulk.
+ */
+final class SimulationCheckpoint {
+
+    static final int magic = 0x44534331;
+    static final int version = 2;
+    private static final int headerLength = 33;
+
+    private final int height, width, pores;
+    private final double speed;
+    private final boolean eventDriven;
+    private final int countdown;
+    //State of the engine, read when restored
+    private final ByteBuffer state;
+
+    private SimulationCheckpoint(ByteBuffer file){
+        height = file.getInt();
+        width = file.getInt();
+        pores = file.getInt();
+        speed = file.getDouble();
+        eventDriven = file.get() == 1;
+        countdown = file.getInt();
+        state = file.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Saves the state of an engine. The engine must not be updated meanwhile - this is to be called from a command of its scheduler.
+     *
+     * @param file File to save into, replaced if it exists.
+     * @param engine Engine to save.
+     * @param countdown Countdown till the next direction reset.
+     * @throws IOException if the file can not be written.
+     */
+    static void write(Path file, SimulationEngine engine, int countdown) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerLength+engine.getStateLength());
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(magic).putInt(version);
+            out.putInt(engine.getHeight()).putInt(engine.getWidth()).putInt(engine.getPores());
+            out.putDouble(engine.getSpeed()).put((byte)(engine.isEventDriven() ? 1 : 0)).putInt(countdown);
+            engine.writeState(out);
+            out.force();
+        }
+    }
+
+    /**
+     * Reads a saved state.
+     *
+     * @param file File written by {@link #write(Path, SimulationEngine, int)}.
+     * @return the state, to be restored into an engine.
+     * @throws IOException if the file can not be read or is not a saved state.
+     */
+    static SimulationCheckpoint read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            //The mapping stays valid once the channel is closed
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            in.order(ByteOrder.LITTLE_ENDIAN);
+            if (in.remaining() < headerLength || in.getInt() != magic || in.getInt() != version){
+                throw new IOException("Not a saved simulation: "+file);
+            }
+            SimulationCheckpoint checkpoint = new SimulationCheckpoint(in);
+            //The state is only read when restored, on the simulation thread, so a cut off file is found out now
+            ByteBuffer state = checkpoint.state;
+            if (state.remaining() < 16 || state.getInt(8) < 0 || state.remaining() != SimulationEngine.stateLength(state.getInt(8))){
+                throw new IOException("Incomplete saved simulation: "+file);
+            }
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Sets up an engine with the saved settings and replaces all its particles by the saved ones.
+     * Can be done any number of times, e.g. to start several runs from the same state.
+     */
+    void restore(SimulationEngine engine){
+        engine.setDimensions(height, width);
+        engine.setPores(pores);
+        engine.setSpeed(speed);
+        engine.setEventDriven(eventDriven);
+        engine.readState(state.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    int getHeight(){
+        return height;
+    }
+
+    int getWidth(){
+        return width;
+    }
+
+    int getPores(){
+        return pores;
+    }
+
+    double getSpeed(){
+        return speed;
+    }
+
+    boolean isEventDriven(){
+        return eventDriven;
+    }
+
+    int getCountdown(){
+        return countdown;
+    }
+}
@@ -0,0 +1,1512 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless core of the simulation.
+ *
+ * Holds the state of every particle and of the membrane in primitive arrays and advances it one update duration at a time.
+ * No JavaFX node is touched here - the scene is only a view of this state and is updated separately by a {@code SimulationView}.
+ */
+class SimulationEngine implements SimulationLimits {
+
+    //Determines the size of the pore. this is NOT a limit of the simulation (despite being static final)
+    // - only arise due to an incomplete implementation of the simulation/controller
+    //In future works, pore size can be varied too
+    static final int poreHeight = 30;
+    //Width of every block in the membrane
+    static final int blockWidth = 10;
+    //Number of update durations that needs to pass before two particles that just collided can collide again (see buffer)
+    private static final int collideBuffer = 20;
+    //Number of particles the arrays are able to hold before they are first grown
+    private static final int initialCapacity = 128;
+    //Number of bytes written for each particle moved to another engine, and for each particle of the halo of another engine
+    static final int particleLength = 5*8+4*4+8;
+    static final int haloLength = 3*8+4;
+    //Random stream used to place new particles - particle i draws from stream i+1
+    private static final int placementStream = 0;
+    //Number of random positions tried for a new particle before giving up, and minimum space left between a new particle and any other one
+    private static final int placementAttempts = 30;
+    private static final int placementMargin = 10;
+
+    //Below this number of particles, every update is done on the calling thread even if a pool is set
+    private static final int parallelThreshold = 2048;
+    //Phases of an update that can be split across the pool
+    private static final int integratePhase = 0;
+    private static final int collidePhase = 1;
+    private static final int boundaryPhase = 2;
+    private static final int membranePhase = 3;
+    //A task covering no more than this many particles (or cells of the grid) is not split any further
+    private static final int integrateGrain = 4096;
+    private static final int collideGrain = 16;
+
+    //Obstacles a particle can collide with in the event-driven mode (blocks are numbered from firstBlock downwards)
+    private static final int verticalWall = -1;
+    private static final int horizontalWall = -2;
+    private static final int firstBlock = -7;
+    //Events of the event-driven mode where a particle crosses into the next cell to the right, left, bottom or top
+    private static final int crossRight = -3;
+    private static final int crossLeft = -4;
+    private static final int crossDown = -5;
+    private static final int crossUp = -6;
+    //Guards against particles jammed against each other colliding endlessly at the same instant
+    private static final int maxEventsPerParticle = 64;
+    //Two objects closer than touching by more than this (only possible if they were placed like that) are left to move out of each other
+    private static final double overlapTolerance = 1e-6;
+
+    //Necessary information of the simulation
+    private int height;
+    private int width;
+    private int pores;
+    //speed may be changed from other threads while the engine is being advanced
+    private volatile double speed = 1;
+    //Number of update durations gone through since the last initialization
+    private long tick;
+    //Seed of all the randomness of the simulation - the same seed (and number of threads) always gives the same simulation
+    private long seed;
+    private RandomStreams random;
+
+    //State of all particles - position, direction, radius and species, and:
+    //buffer is a countdown of the number of update durations that that needs to pass after the particle collides with another particle
+    //before the same two particles can collide again
+    //When buffer reaches 0, the particle's last collision will be cleared such that it can collide with no limitations
+    //*In real life diffusion, such a thing do not exist. buffer is for the purpose of minimizing the number of particle pairs that gets stuck together
+    //due to multiple collisions that happen in short periods of time causing them to reflect back and forth (due to algorithm limitation).*
+    //lastCollide stores the id of the particle which this particle last collided with (-1 if none)
+    //- ids are given in order of addition, so that in a single engine the id of a particle is its index
+    //In the event-driven mode only, clock is the time up to which the position of the particle is up to date,
+    //and collisions is the number of collisions the particle went through (used to recognise outdated predictions)
+    private int count;
+    private ParticleStore particles;
+    //Whether the particles are to be held in native memory outside of the heap, from the next initialization
+    private boolean offHeap;
+    //Id of the next particle added, and difference between the ids of two particles added one after the other
+    private int firstId, nextId;
+    private int idStride = 1;
+
+    //Strip of the area the engine is restricted to, when the area is split between several engines (see StripWorker)
+    private double stripLeft = Double.NEGATIVE_INFINITY, stripRight = Double.POSITIVE_INFINITY;
+    //Number of particles of neighbouring strips held after the particles of the engine during an update of a strip
+    //They are only seen by the particles of the engine, and are never moved or bounced themselves
+    private int halo;
+    //Number of particles of each species, and of those in the right division (x >= 0)
+    //The right counts are only changed when a particle crosses the equator, so that they never need a scan of all particles
+    private final int[] speciesCount = new int[2];
+    private final int[] rightCount = new int[2];
+    //Geometry of the membrane, replaced on initialization (it is shared with the snapshots)
+    private Membrane membrane;
+    //Snapshots no longer read, reused by the next snapshots taken
+    private final SnapshotPool frames = new SnapshotPool();
+
+    //Broad phase of the particle collision checks
+    private SpatialGrid grid;
+    //Particles already placed, while adding new particles
+    //It is only filled again once particles were moved, removed or read since the last particles were added, so adding one at a time takes constant time
+    private CellList occupancy;
+    private boolean occupancyOutdated = true;
+    private final SpatialGrid.PairVisitor pairCollision = this::collidePair;
+
+    //Pool used to update large populations in parallel, null if every update is done on the calling thread
+    private ForkJoinPool pool;
+    //Loops over ranges of particles in the fixed time step mode, vectorized where possible
+    private ParticleKernel kernel = ParticleKernel.fastest();
+
+    //Whether collisions are predicted and handled at the exact time they happen instead of being checked once per update duration
+    private boolean eventDriven;
+    //Predictions of the event-driven mode, kept from one update to the next unless the state was changed from outside
+    private CellList cells;
+    private EventQueue events;
+    private boolean eventsOutdated;
+    //Time of the event-driven mode since predictions were last redone from scratch
+    private double eventTime;
+
+    //Where statistics of the updates are recorded (null for nowhere), and whether they are being recorded during the current update
+    private TickMetrics metrics;
+    private boolean recording;
+    //Time taken by the first part of the current update of a strip, in nanoseconds (0 if not recording)
+    private long stripNanos;
+    //Work done during the current update, counted in the order of the counters of TickMetrics
+    //Counting only happens where something rare happens (a collision or a crossing), so it is done whether or not statistics are recorded
+    private final long[] work = new long[TickMetrics.counters];
+
+    SimulationEngine(int height, int width, int pores){
+        this.height = height;
+        this.width = width;
+        this.pores = pores;
+        seed = new SplittableRandom().nextLong();
+        random = new RandomStreams(seed, initialCapacity+1);
+        random.start(placementStream);
+        particles = ParticleStore.onHeap(initialCapacity);
+        membrane = new Membrane(blockWidth, new double[0], new double[0]);
+        grid = new SpatialGrid();
+        occupancy = new CellList();
+        cells = new CellList();
+        events = new EventQueue();
+    }
+
+    /**
+     * Checks whether an area of the given height is able to contain the given number of pores.
+     *
+     * @param height Height of the simulation area.
+     * @param pores Number of pores.
+     * @return whether the blocks between the pores would have a positive height.
+     */
+    static boolean canContainPores(int height, int pores){
+        //One or less pore can be contained by any height
+        if (pores == 1 || pores == 0){
+            return true;
+        }
+        double blockHeight = (height-pores*poreHeight)/(pores-1);
+        return blockHeight > 0;
+    }
+
+    /**
+     * Clears all particles and rebuilds the membrane for the current height and number of pores.
+     * Particles are held in a new store if they were released, or if they are to be held in another kind of memory than they were.
+     */
+    void initialize(){
+        if (particles.getCapacity() == 0 || (offHeap && ParticleStore.isOffHeapAvailable()) != isOffHeap()){
+            particles.close();
+            particles = offHeap ? ParticleStore.offHeap(initialCapacity) : ParticleStore.onHeap(initialCapacity);
+            random.setCapacity(initialCapacity+1);
+        }
+        count = 0;
+        halo = 0;
+        tick = 0;
+        nextId = firstId;
+        random.reseed(seed);
+        random.start(placementStream);
+        Arrays.fill(speciesCount, 0);
+        Arrays.fill(rightCount, 0);
+        //Within a strip, only the strip and the particles of its neighbours that can touch particles of the strip need to be covered
+        double left = Math.max(-width/2.0, stripLeft-2*MAX_SIZE), right = Math.min(width/2.0, stripRight+2*MAX_SIZE);
+        grid.resize(height, left, right);
+        occupancy.resize(height, left, right);
+        occupancyOutdated = true;
+        cells.resize(height, left, right);
+        eventsOutdated = true;
+        //The membrane is only laid out here, so updates never need to work out where the blocks are
+        membrane = Membrane.evenlySpaced(height, blockWidth, pores, poreHeight);
+    }
+
+    /**
+     * Changes the dimensions of the simulation area. Takes effect upon the next {@link #initialize()}.
+     */
+    void setDimensions(int height, int width){
+        this.height = height;
+        this.width = width;
+    }
+
+    /**
+     * Changes the number of pores. Takes effect upon the next {@link #initialize()}.
+     */
+    void setPores(int pores){
+        this.pores = pores;
+    }
+
+    /**
+     * Adds a new particle at a random free position on one side of the membrane.
+     *
+     * @param particleSpecies Species of the particle (0 for particle 1, 1 for particle 2).
+     * @param size Radius of the particle.
+     * @param hint Left (-1) or Right (1).
+     * @return whether a free position was found and the particle was added.
+     */
+    boolean addParticle(int particleSpecies, int size, int hint){
+        return addParticles(particleSpecies, size, hint, 1) == 1;
+    }
+
+    /**
+     * Adds new particles at random free positions on one side of the membrane.
+     * All particles are kept in an occupancy grid while adding, so that each position tried is only checked against the particles around it
+     * and the time taken grows with the number of particles added rather than with the number of particles times the number added.
+     * The grid is kept from one call to the next until particles move, so adding particles one at a time does not fill it again each time.
+     * Particles are added until one of them cannot be placed, since the side is then nearly full.
+     *
+     * @param particleSpecies Species of the particles (0 for particle 1, 1 for particle 2).
+     * @param size Radius of the particles.
+     * @param hint Left (-1) or Right (1).
+     * @param number Number of particles to add.
+     * @return number of particles actually added.
+     */
+    int addParticles(int particleSpecies, int size, int hint, int number){
+        return placeParticles(particleSpecies, size, hint, 0, 0, 0, 0, number);
+    }
+
+    /**
+     * Adds new particles at random free positions within a region of the area (a source), in the same way as {@link #addParticles(int, int, int, int)}.
+     * Particles are placed so that they lie wholly within both the region and the area, and do not touch any block.
+     *
+     * @param particleSpecies Species of the particles (0 for particle 1, 1 for particle 2).
+     * @param size Radius of the particles.
+     * @param left Left edge of the region, relative to the center of the area.
+     * @param top Top edge of the region, relative to the center of the area.
+     * @param right Right edge of the region.
+     * @param bottom Bottom edge of the region.
+     * @param number Number of particles to add.
+     * @return number of particles actually added.
+     */
+    int addParticles(int particleSpecies, int size, double left, double top, double right, double bottom, int number){
+        return placeParticles(particleSpecies, size, 0, left, top, right, bottom, number);
+    }
+
+    /**
+     * Adds new particles on one side of the membrane, or within a region if {@code hint} is 0.
+     */
+    private int placeParticles(int particleSpecies, int size, int hint, double left, double top, double right, double bottom, int number){
+        if (number <= 0){
+            return 0;
+        }
+        if (count+number > particles.getCapacity()){
+            allocate(Math.max(particles.getCapacity()*2, count+number));
+        }
+        if (occupancyOutdated){
+            occupancy.clear(count+number);
+            for (int j = 0; j < count; j++){
+                occupancy.add(j, occupancy.cellAt(particles.getX(j), particles.getY(j)));
+            }
+            occupancyOutdated = false;
+        } else {
+            occupancy.reserve(count+number);
+        }
+        //Number of cells around a position holding the particles that a new particle can be close to
+        int reach = (int)Math.ceil((size+MAX_SIZE+placementMargin)/occupancy.getCellSize());
+
+        int added = 0;
+        while (added < number){
+            int i = count;
+            particles.setRadius(i, size);
+            particles.setSpecies(i, particleSpecies);
+            if (!(hint != 0 ? findFreePosition(i, size, hint, reach) : findFreePosition(i, size, left, top, right, bottom, reach))){
+                break;
+            }
+            occupancy.add(i, occupancy.cellAt(particles.getX(i), particles.getY(i)));
+            random.start(i+1);
+            setDirection(i);
+            particles.setBuffer(i, collideBuffer);
+            particles.setLastCollide(i, -1);
+            particles.setId(i, nextId);
+            nextId += idStride;
+            speciesCount[particleSpecies]++;
+            if (particles.getX(i) >= 0){
+                rightCount[particleSpecies]++;
+            }
+            count++;
+            added++;
+        }
+        if (added > 0){
+            eventsOutdated = true;
+        }
+        return added;
+    }
+
+    /**
+     * Removes particles from one side of the membrane (a sink), highest index first.
+     *
+     * @param particleSpecies Species of the particles (0 for particle 1, 1 for particle 2), or -1 for particles of both species.
+     * @param hint Left (-1) or Right (1).
+     * @param number Largest number of particles to remove.
+     * @return number of particles actually removed.
+     */
+    int removeParticles(int particleSpecies, int hint, int number){
+        return hint < 0 ? removeParticles(particleSpecies, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, 0, Double.POSITIVE_INFINITY, number)
+                : removeParticles(particleSpecies, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, number);
+    }
+
+    /**
+     * Removes particles whose center lies within a region of the area (a sink), highest index first.
+     * Each particle is removed in constant time by {@link #removeParticle(int)}, so indices of particles change but their ids do not.
+     *
+     * @param particleSpecies Species of the particles (0 for particle 1, 1 for particle 2), or -1 for particles of both species.
+     * @param left Left edge of the region (included), relative to the center of the area.
+     * @param top Top edge of the region (included), relative to the center of the area.
+     * @param right Right edge of the region (excluded).
+     * @param bottom Bottom edge of the region (excluded).
+     * @param number Largest number of particles to remove.
+     * @return number of particles actually removed.
+     */
+    int removeParticles(int particleSpecies, double left, double top, double right, double bottom, int number){
+        int removed = 0;
+        //The particle moved into the index of a removed one was already looked at
+        for (int i = count-1; i >= 0 && removed < number; i--){
+            double x = particles.getX(i), y = particles.getY(i);
+            if ((particleSpecies < 0 || particles.getSpecies(i) == particleSpecies) && x >= left && x < right && y >= top && y < bottom){
+                removeParticle(i);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Moves particle {@code i} to a random position on one side of the membrane that is not close to any other particle in the occupancy grid.
+     *
+     * @return whether such a position was found within {@code placementAttempts} attempts.
+     */
+    private boolean findFreePosition(int i, int size, int hint, int reach){
+        for (int attempt = 0; attempt < placementAttempts; attempt++){
+            //Get random positions for the new particle at the side where it is being added into (and within the strip, if restricted to one)
+            double x, y;
+            if (stripLeft == Double.NEGATIVE_INFINITY && stripRight == Double.POSITIVE_INFINITY){
+                x = hint * (random.nextInt(placementStream, width/2-2*size)+size);
+            } else {
+                double from = Math.max(hint < 0 ? size-width/2.0 : size, stripLeft+size);
+                double to = Math.min(hint < 0 ? -size : width/2.0-size, stripRight-size);
+                if (to <= from){
+                    return false;
+                }
+                x = from+random.nextDouble(placementStream)*(to-from);
+            }
+            if (random.nextInt(placementStream, 2)==0){
+                y = -1 * (random.nextInt(placementStream, height/2-2*size)+size);
+            } else {
+                y = random.nextInt(placementStream, height/2-2*size)+size;
+            }
+            if (isFree(i, x, y, reach)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves particle {@code i} to a random position within a region that is not close to any other particle in the occupancy grid nor touching a block.
+     *
+     * @return whether such a position was found within {@code placementAttempts} attempts.
+     */
+    private boolean findFreePosition(int i, int size, double left, double top, double right, double bottom, int reach){
+        //The whole of the particle has to be within the region, the area and the strip (if restricted to one)
+        double fromX = Math.max(left+size, Math.max(size-width/2.0, stripLeft+size));
+        double toX = Math.min(right-size, Math.min(width/2.0-size, stripRight-size));
+        double fromY = Math.max(top+size, size-height/2.0), toY = Math.min(bottom-size, height/2.0-size);
+        if (toX < fromX || toY < fromY){
+            return false;
+        }
+        for (int attempt = 0; attempt < placementAttempts; attempt++){
+            double x = fromX+random.nextDouble(placementStream)*(toX-fromX);
+            double y = fromY+random.nextDouble(placementStream)*(toY-fromY);
+            if (!touchesBlock(x, y, size+placementMargin) && isFree(i, x, y, reach)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves particle {@code i} to a position and checks that it is not too close to any particles in the surrounding cells of the occupancy grid.
+     */
+    private boolean isFree(int i, double x, double y, int reach){
+        particles.setX(i, x);
+        particles.setY(i, y);
+        int columns = occupancy.getColumns(), rows = occupancy.getRows();
+        int c = occupancy.cellAt(x, y);
+        int column = c % columns, row = c / columns;
+        for (int nRow = Math.max(0, row-reach); nRow <= Math.min(rows-1, row+reach); nRow++){
+            for (int nColumn = Math.max(0, column-reach); nColumn <= Math.min(columns-1, column+reach); nColumn++){
+                for (int j = occupancy.first(nRow*columns+nColumn); j != -1; j = occupancy.next(j)){
+                    if (closeTo(i, j)){
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a circle touches any block.
+     */
+    private boolean touchesBlock(double x, double y, double r){
+        if (!membrane.isAlongside(x, r)){
+            return false;
+        }
+        for (int j = membrane.firstBlockFrom(y-r); j < membrane.getBlockCount() && membrane.getTop(j) <= y+r; j++){
+            if (membrane.distanceSquared(j, x, y) < r*r){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves simulation time forward by one update duration.
+     */
+    void step(){
+        double speed = this.speed;
+        //Nothing is timed unless statistics are recorded
+        recording = metrics != null && metrics.isEnabled();
+        long start = recording ? System.nanoTime() : 0;
+        Arrays.fill(work, 0);
+        if (eventDriven){
+            advanceByEvents(speed);
+            lap(TickMetrics.events, start);
+        //Small populations are not worth the cost of splitting the work
+        } else if (pool != null && count >= parallelThreshold){
+            StepTask integrate = new StepTask(integratePhase, 0, count, speed);
+            pool.invoke(integrate);
+            rightCount[0] += integrate.rightDelta[0];
+            rightCount[1] += integrate.rightDelta[1];
+            addWork(integrate.work);
+            long lap = lap(TickMetrics.integrate, start);
+            grid.rebuild(particles, count);
+            if (recording){
+                work[TickMetrics.candidatePairs] += grid.countCandidatePairs();
+            }
+            checkCollisionsInParallel(speed, lap);
+        } else {
+            updateParticles(0, count, speed);
+            lap(TickMetrics.integrate, start);
+            checkCollisions();
+        }
+        occupancyOutdated = true;
+        tick++;
+        if (recording){
+            long now = System.nanoTime();
+            metrics.recordTick(work, now-start, now);
+        }
+    }
+
+    /**
+     * Records the time since {@code since} as the duration of a phase of the update, if statistics are being recorded.
+     *
+     * @return current time, to be passed on as the start of the next phase (0 if statistics are not being recorded).
+     */
+    private long lap(int phase, long since){
+        if (!recording){
+            return 0;
+        }
+        long now = System.nanoTime();
+        metrics.record(phase, now-since);
+        return now;
+    }
+
+    /**
+     * Checks collisions of every particle with other particles (through the grid, which has to be up to date), walls and blocks,
+     * splitting the work across the pool.
+     *
+     * @param since Start of the first of these phases, for statistics.
+     */
+    private void checkCollisionsInParallel(double speed, long since){
+        StepTask collide = new StepTask(collidePhase, 0, grid.getCellCount(), speed);
+        pool.invoke(collide);
+        addWork(collide.work);
+        long lap = lap(TickMetrics.pairs, since);
+        //A collision between particles only changes the direction of the particles involved, and walls and blocks only depend on the particle itself,
+        //so walls and blocks are checked once all pairs are, over ranges of particles - walls then blocks for every particle, as on a single thread
+        StepTask boundary = new StepTask(boundaryPhase, 0, count, speed);
+        pool.invoke(boundary);
+        addWork(boundary.work);
+        lap = lap(TickMetrics.walls, lap);
+        StepTask membrane = new StepTask(membranePhase, 0, count, speed);
+        pool.invoke(membrane);
+        addWork(membrane.work);
+        lap(TickMetrics.blocks, lap);
+    }
+
+    private void addWork(long[] taskWork){
+        for (int k = 0; k < work.length; k++){
+            work[k] += taskWork[k];
+        }
+    }
+
+    /**
+     * First part of an update of a strip of a larger area: moves every particle of the engine along its direction.
+     * The particles that left the strip and those close to its edges are then exchanged with the neighbouring strips
+     * (see {@link #removeParticle(int)}, {@link #readParticle(ByteBuffer)} and {@link #readHaloParticle(ByteBuffer)}),
+     * before {@link #endStripStep()} completes the update. Only the fixed time step mode is able to update strips.
+     */
+    void beginStripStep(){
+        recording = metrics != null && metrics.isEnabled();
+        long start = recording ? System.nanoTime() : 0;
+        Arrays.fill(work, 0);
+        if (pool != null && count >= parallelThreshold){
+            StepTask integrate = new StepTask(integratePhase, 0, count, speed);
+            pool.invoke(integrate);
+            rightCount[0] += integrate.rightDelta[0];
+            rightCount[1] += integrate.rightDelta[1];
+            addWork(integrate.work);
+        } else {
+            updateParticles(0, count, speed);
+        }
+        occupancyOutdated = true;
+        stripNanos = lap(TickMetrics.integrate, start)-start;
+    }
+
+    /**
+     * Completes an update begun by {@link #beginStripStep()}: checks collisions of every particle of the engine with any other particle,
+     * including those of the halo, and with walls and blocks. The halo is cleared afterwards.
+     */
+    void endStripStep(){
+        long start = recording ? System.nanoTime() : 0;
+        grid.rebuild(particles, count+halo);
+        if (recording){
+            work[TickMetrics.candidatePairs] += grid.countCandidatePairs();
+        }
+        //Each particle is only updated by the checks of the cell it lies in, so particles of the halo are left as they are
+        if (pool != null && count >= parallelThreshold){
+            checkCollisionsInParallel(speed, start);
+        } else {
+            checkCollisionsInCells(0, grid.getCellCount(), work);
+            long lap = lap(TickMetrics.pairs, start);
+            work[TickMetrics.wallCollisions] += checkBoundary(0, count);
+            lap = lap(TickMetrics.walls, lap);
+            work[TickMetrics.blockCollisions] += checkMembrane(0, count);
+            lap(TickMetrics.blocks, lap);
+        }
+        halo = 0;
+        occupancyOutdated = true;
+        tick++;
+        //The update takes the time of both parts, without the exchange with the neighbouring strips in between
+        if (recording){
+            long now = System.nanoTime();
+            metrics.recordTick(work, stripNanos+now-start, now);
+        }
+    }
+
+    /**
+     * Writes the whole state of particle {@code i} (including its random stream), {@code particleLength} bytes,
+     * to be added to another engine by {@link #readParticle(ByteBuffer)}.
+     */
+    void writeParticle(int i, ByteBuffer out){
+        out.putDouble(particles.getX(i)).putDouble(particles.getY(i))
+                .putDouble(particles.getVX(i)).putDouble(particles.getVY(i)).putDouble(particles.getRadius(i))
+                .putInt(particles.getSpecies(i)).putInt(particles.getBuffer(i)).putInt(particles.getLastCollide(i)).putInt(particles.getId(i))
+                .putLong(random.getState(i+1));
+    }
+
+    /**
+     * Adds a particle written by {@link #writeParticle(int, ByteBuffer)}, keeping its id. It goes on exactly as it would have in the engine it was written from.
+     * There must not be any halo.
+     */
+    void readParticle(ByteBuffer in){
+        if (count == particles.getCapacity()){
+            allocate(Math.max(particles.getCapacity()*2, initialCapacity));
+        }
+        int i = count;
+        particles.setX(i, in.getDouble());
+        particles.setY(i, in.getDouble());
+        particles.setVX(i, in.getDouble());
+        particles.setVY(i, in.getDouble());
+        particles.setRadius(i, in.getDouble());
+        particles.setSpecies(i, in.getInt());
+        particles.setBuffer(i, in.getInt());
+        particles.setLastCollide(i, in.getInt());
+        particles.setId(i, in.getInt());
+        random.setState(i+1, in.getLong());
+        speciesCount[particles.getSpecies(i)]++;
+        if (particles.getX(i) >= 0){
+            rightCount[particles.getSpecies(i)]++;
+        }
+        count++;
+        occupancyOutdated = true;
+        eventsOutdated = true;
+    }
+
+    /**
+     * Removes particle {@code i}. The last particle takes its index, so indices of other particles are left unchanged.
+     * There must not be any halo.
+     */
+    void removeParticle(int i){
+        int particleSpecies = particles.getSpecies(i);
+        speciesCount[particleSpecies]--;
+        if (particles.getX(i) >= 0){
+            rightCount[particleSpecies]--;
+        }
+        count--;
+        if (i != count){
+            int last = count;
+            particles.setX(i, particles.getX(last));
+            particles.setY(i, particles.getY(last));
+            particles.setVX(i, particles.getVX(last));
+            particles.setVY(i, particles.getVY(last));
+            particles.setRadius(i, particles.getRadius(last));
+            particles.setSpecies(i, particles.getSpecies(last));
+            particles.setBuffer(i, particles.getBuffer(last));
+            particles.setLastCollide(i, particles.getLastCollide(last));
+            particles.setClock(i, particles.getClock(last));
+            particles.setCollisions(i, particles.getCollisions(last));
+            particles.setId(i, particles.getId(last));
+            random.setState(i+1, random.getState(last+1));
+        }
+        occupancyOutdated = true;
+        eventsOutdated = true;
+    }
+
+    /**
+     * Writes what particles of a neighbouring strip need to know of particle {@code i} to collide with it, {@code haloLength} bytes,
+     * to be added to their halo by {@link #readHaloParticle(ByteBuffer)}.
+     */
+    void writeHaloParticle(int i, ByteBuffer out){
+        out.putDouble(particles.getX(i)).putDouble(particles.getY(i)).putDouble(particles.getRadius(i)).putInt(particles.getId(i));
+    }
+
+    /**
+     * Adds a particle written by {@link #writeHaloParticle(int, ByteBuffer)} to the halo, until the end of the current update of the strip.
+     */
+    void readHaloParticle(ByteBuffer in){
+        if (count+halo == particles.getCapacity()){
+            allocate(Math.max(particles.getCapacity()*2, initialCapacity));
+        }
+        int i = count+halo;
+        particles.setX(i, in.getDouble());
+        particles.setY(i, in.getDouble());
+        particles.setRadius(i, in.getDouble());
+        particles.setId(i, in.getInt());
+        halo++;
+    }
+
+    /**
+     * Copies the current state of all particles into a spare snapshot, so that nothing is allocated unless the particles outgrew every spare.
+     *
+     * @return a snapshot held once by the caller, that is not affected by further updates of the engine until it is released.
+     */
+    FrameSnapshot snapshot(){
+        FrameSnapshot frame = frames.take();
+        frame.capture(tick, particles, count, speciesCount, rightCount, height, width, membrane);
+        return frame;
+    }
+
+    /**
+     * @return number of bytes {@link #writeState(ByteBuffer)} writes.
+     */
+    long getStateLength(){
+        return stateLength(count);
+    }
+
+    /**
+     * @return number of bytes {@link #writeState(ByteBuffer)} writes for {@code count} particles.
+     */
+    static long stateLength(int count){
+        return 16+RandomStreams.stateLength(count+1)+count*(5*8+4*4L);
+    }
+
+    /**
+     * Writes the state of the simulation that is not given by its settings - tick, randomness, every particle and the id of the next one added -
+     * to be read back by {@link #readState(ByteBuffer)}. Each column of the particles is written as a whole, so that it is read back in bulk.
+     */
+    void writeState(ByteBuffer out){
+        out.putLong(tick).putInt(count).putInt(nextId);
+        random.writeState(out, count+1);
+        particles.write(out, count);
+    }
+
+    /**
+     * Replaces all particles by the state written by {@link #writeState(ByteBuffer)}, and rebuilds the membrane for the current height and number of pores.
+     * Updates in the fixed time step mode then go on exactly as they would have from the state written (with the same number of threads);
+     * in the event-driven mode, collisions are predicted again from scratch.
+     */
+    void readState(ByteBuffer in){
+        initialize();
+        tick = in.getLong();
+        int count = in.getInt();
+        //Ids are kept as they were, since the last collision of each particle is told by the id of the other particle
+        int nextId = in.getInt();
+        if (count > particles.getCapacity()){
+            allocate(count);
+        }
+        random.readState(in);
+        particles.read(in, count);
+        seed = random.getSeed();
+        this.count = count;
+        this.nextId = nextId;
+        //The counts of the divisions are only ever changed incrementally, so they are counted once here
+        for (int i = 0; i < count; i++){
+            int particleSpecies = particles.getSpecies(i);
+            speciesCount[particleSpecies]++;
+            if (particles.getX(i) >= 0){
+                rightCount[particleSpecies]++;
+            }
+        }
+    }
+
+    /**
+     * Update the positions of particles {@code from} to {@code to-1} depending on the speed set
+     * (speed multiplies the number of units that the particle is supposed to translate)
+     * Also updates the countdown value for the min.time needed for collision with last collided particle
+     */
+    void updateParticles(int from, int to, double speed){
+        updateParticles(from, to, speed, rightCount, work);
+    }
+
+    /**
+     * Same as {@link #updateParticles(int, int, double)}, adding the change in the number of particles of each species in the right division
+     * to {@code rightDelta} and the number of membrane crossings to {@code work}.
+     */
+    private void updateParticles(int from, int to, double speed, int[] rightDelta, long[] work){
+        work[TickMetrics.membraneCrossings] += kernel.integrate(particles, from, to, speed, rightDelta);
+        //if buffer countdown to 0, remove lastCollide
+        kernel.countDown(particles, from, to, collideBuffer);
+    }
+
+    /**
+     * Checks collisions of all particles in the simulation with other components in the simulation.
+     */
+    void checkCollisions(){
+        long start = recording ? System.nanoTime() : 0;
+        //Check collisions between particles - only particles in the same or neighbouring cells of the grid can touch
+        grid.rebuild(particles, count);
+        grid.forEachCandidatePair(pairCollision);
+        if (recording){
+            work[TickMetrics.candidatePairs] += grid.countCandidatePairs();
+        }
+        long lap = lap(TickMetrics.pairs, start);
+
+        //Check collisions between particle and boundary of simulation area
+        work[TickMetrics.wallCollisions] += checkBoundary(0, count);
+        lap = lap(TickMetrics.walls, lap);
+
+        //Check collision between particles and blocks in the equator of the simulation area
+        work[TickMetrics.blockCollisions] += checkMembrane(0, count);
+        lap(TickMetrics.blocks, lap);
+    }
+
+    /**
+     * Checks collisions between the particles lying in cells {@code firstCell} to {@code endCell-1} of the grid and any other particle.
+     * Unlike {@link #checkCollisions()}, only the particles in these cells are updated (a collision between particles of two different tasks
+     * is detected by both tasks, each updating its own particle), so tasks covering different cells can run concurrently without any locking.
+     * Collisions are counted in {@code work}.
+     */
+    private void checkCollisionsInCells(int firstCell, int endCell, long[] work){
+        int columns = grid.getColumns(), rows = grid.getRows();
+        for (int c = firstCell; c < endCell; c++){
+            int column = c % columns, row = c / columns;
+            int firstRow = Math.max(0, row-1), lastRow = Math.min(rows-1, row+1);
+            int firstColumn = Math.max(0, column-1), lastColumn = Math.min(columns-1, column+1);
+            for (int a = grid.cellStart(c); a < grid.cellEnd(c); a++){
+                int i = grid.itemAt(a);
+                //Particles of the halo are only ever read
+                if (i >= count) continue;
+                //Detect collisions with particles in the same and the surrounding cells - neighbours are only read, never written
+                for (int nRow = firstRow; nRow <= lastRow; nRow++){
+                    for (int nColumn = firstColumn; nColumn <= lastColumn; nColumn++){
+                        int n = nRow*columns+nColumn;
+                        for (int b = grid.cellStart(n); b < grid.cellEnd(n); b++){
+                            int j = grid.itemAt(b);
+                            if (j != i && collideWith(i, j)){
+                                work[TickMetrics.particleCollisions]++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks collisions between particles {@code from} to {@code to-1} and the boundary of simulation area.
+     * If a particle touches a boundary and is still moving towards it, flip its translation per time period in that direction.
+     *
+     * @return number of particles that bounced off the boundary.
+     */
+    private int checkBoundary(int from, int to){
+        return kernel.reflectOffWalls(particles, from, to, width/2, height/2);
+    }
+
+    /**
+     * Checks collisions between particles {@code from} to {@code to-1} and the blocks in the equator of the simulation area.
+     * Only the particles close enough to the membrane are looked at one by one.
+     *
+     * @return number of particles that bounced off a block.
+     */
+    private int checkMembrane(int from, int to){
+        int bounced = 0;
+        double halfWidth = membrane.getHalfWidth();
+        for (int i = kernel.nextAlongside(particles, from, to, halfWidth); i < to; i = kernel.nextAlongside(particles, i+1, to, halfWidth)){
+            if (checkMembrane(i)){
+                bounced++;
+            }
+        }
+        return bounced;
+    }
+
+    /**
+     * Checks collision between particle {@code i} and the blocks in the equator of the simulation area.
+     *
+     * If the particle touches a block and is still moving into it, it is reflected about the surface of the block where it touches it.
+     *
+     * @return whether the particle bounced off a block.
+     */
+    private boolean checkMembrane(int i){
+        double x = particles.getX(i), y = particles.getY(i), r = particles.getRadius(i);
+        //Check if the particle is within the mid portion such that the particle's border is able to touch/intersect a block
+        if (!membrane.isAlongside(x, r)){
+            return false;
+        }
+        //Only the blocks vertically within reach of the particle need to be checked - usually one at most, none if the particle is in a pore
+        for (int j = membrane.firstBlockFrom(y-r); j < membrane.getBlockCount() && membrane.getTop(j) <= y+r; j++){
+            if (membrane.distanceSquared(j, x, y) < r*r){
+                double nx = membrane.normalX(j, x, y), ny = membrane.normalY(j, x, y);
+                if (particles.getVX(i)*nx+particles.getVY(i)*ny < 0){
+                    reflect(i, nx, ny);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves all particles forward by the given time, handling every collision at the time it happens.
+     * Nothing can tunnel through a particle or a block however high the speed is, and no buffer is needed between two collisions.
+     * Work is only done at events (collisions and particles crossing into another cell): predictions are kept from one update to the next
+     * and only redone for the particles involved in an event.
+     *
+     * @param duration Time to move forward by (distance travelled by every particle).
+     */
+    private void advanceByEvents(double duration){
+        if (eventsOutdated){
+            predictAll();
+        }
+        double end = eventTime+duration;
+
+        int budget = maxEventsPerParticle*count;
+        while (!events.isEmpty() && events.peekTime() <= end){
+            //Particles are jammed - let them move out of each other and start over from the next update
+            if (budget-- == 0){
+                eventsOutdated = true;
+                break;
+            }
+            events.poll();
+            int i = events.polledParticle(), other = events.polledOther();
+            //Skip predictions made before either particle last collided
+            if (particles.getCollisions(i) != events.polledParticleCount() || (other >= 0 && particles.getCollisions(other) != events.polledOtherCount())){
+                continue;
+            }
+            moveTo(i, events.polledTime());
+            if (other <= crossRight && other >= crossUp){
+                //Crossing into another cell does not change the direction, so predictions already made for the particle stay valid
+                crossCell(i, other);
+                continue;
+            }
+            if (other >= 0){
+                moveTo(other, events.polledTime());
+                bounceOffParticle(i, other);
+                particles.setCollisions(other, particles.getCollisions(other)+1);
+                work[TickMetrics.particleCollisions] += 2;
+            } else {
+                bounceOffObstacle(i, other);
+                work[other >= horizontalWall ? TickMetrics.wallCollisions : TickMetrics.blockCollisions]++;
+            }
+            particles.setCollisions(i, particles.getCollisions(i)+1);
+
+            predict(i, false);
+            if (other >= 0){
+                predict(other, false);
+            }
+        }
+
+        //Bring every particle up to date for whoever reads the state before the next update
+        for (int i = 0; i < count; i++){
+            moveTo(i, end);
+        }
+        eventTime = end;
+    }
+
+    /**
+     * Throws all predictions away and predicts the next events of every particle from scratch.
+     * This is needed whenever particles were added or changed direction outside of {@link #advanceByEvents(double)}.
+     */
+    private void predictAll(){
+        eventTime = 0;
+        events.clear();
+        cells.clear(count);
+        for (int i = 0; i < count; i++){
+            particles.setClock(i, 0);
+            cells.add(i, cells.cellAt(particles.getX(i), particles.getY(i)));
+        }
+        for (int i = 0; i < count; i++){
+            predict(i, true);
+        }
+        eventsOutdated = false;
+    }
+
+    /**
+     * Moves particle {@code i} along its current direction up to time {@code t}.
+     */
+    private void moveTo(int i, double t){
+        double x = particles.getX(i), dt = t-particles.getClock(i);
+        boolean wasRight = x >= 0;
+        x += particles.getVX(i)*dt;
+        particles.setX(i, x);
+        particles.setY(i, particles.getY(i)+particles.getVY(i)*dt);
+        particles.setClock(i, t);
+        if (wasRight != x >= 0){
+            rightCount[particles.getSpecies(i)] += wasRight ? -1 : 1;
+            work[TickMetrics.membraneCrossings]++;
+        }
+    }
+
+    /**
+     * Predicts the next collisions of particle {@code i} (from its own clock) and the time it leaves its cell.
+     *
+     * @param laterOnly Whether only particles with a higher index are considered (so that each pair is only predicted once by {@link #predictAll()}).
+     */
+    private void predict(int i, boolean laterOnly){
+        double now = particles.getClock(i);
+        double x = particles.getX(i), y = particles.getY(i), r = particles.getRadius(i);
+        double vX = particles.getVX(i), vY = particles.getVY(i);
+        int collisions = particles.getCollisions(i);
+
+        //Boundary of the simulation area
+        double limitX = width/2-r, limitY = height/2-r;
+        if (vX != 0){
+            events.add(now+Math.max(0, ((vX > 0 ? limitX : -limitX)-x)/vX), i, verticalWall, collisions, 0);
+        }
+        if (vY != 0){
+            events.add(now+Math.max(0, ((vY > 0 ? limitY : -limitY)-y)/vY), i, horizontalWall, collisions, 0);
+        }
+
+        //Blocks in the equator - only those alongside the path of the particle while it is within reach of the membrane
+        //(the particle is predicted again as soon as it bounces off anything, so the path ends at the boundary of the simulation area)
+        double reach = membrane.getHalfWidth()+r;
+        double enter = 0, leave = Double.POSITIVE_INFINITY;
+        if (vX != 0){
+            double first = (-reach-x)/vX, second = (reach-x)/vX;
+            enter = Math.max(0, Math.min(first, second));
+            leave = Math.max(first, second);
+        } else if (!membrane.isAlongside(x, r)){
+            leave = -1;
+        }
+        if (leave >= enter){
+            double from = y+vY*enter;
+            double to = leave == Double.POSITIVE_INFINITY ? (vY > 0 ? height/2.0 : vY < 0 ? -height/2.0 : y) : y+vY*leave;
+            double low = Math.min(from, to)-r, high = Math.max(from, to)+r;
+            for (int j = membrane.firstBlockFrom(low); j < membrane.getBlockCount() && membrane.getTop(j) <= high; j++){
+                double t = timeToBlock(i, j);
+                if (t != Double.POSITIVE_INFINITY){
+                    events.add(now+t, i, firstBlock-j, collisions, 0);
+                }
+            }
+        }
+
+        //Other particles in the same and the surrounding cells
+        int columns = cells.getColumns(), rows = cells.getRows();
+        int c = cells.cellOf(i);
+        int column = c % columns, row = c / columns;
+        for (int nRow = Math.max(0, row-1); nRow <= Math.min(rows-1, row+1); nRow++){
+            for (int nColumn = Math.max(0, column-1); nColumn <= Math.min(columns-1, column+1); nColumn++){
+                predictInCell(i, nRow*columns+nColumn, laterOnly);
+            }
+        }
+
+        predictCrossing(i);
+    }
+
+    /**
+     * Predicts the collisions of particle {@code i} with the particles in cell {@code c}.
+     */
+    private void predictInCell(int i, int c, boolean laterOnly){
+        double now = particles.getClock(i);
+        for (int j = cells.first(c); j != -1; j = cells.next(j)){
+            if (j == i || (laterOnly && j < i)) continue;
+            work[TickMetrics.candidatePairs]++;
+            double t = timeToParticle(i, j, now);
+            if (t != Double.POSITIVE_INFINITY){
+                events.add(now+t, i, j, particles.getCollisions(i), particles.getCollisions(j));
+            }
+        }
+    }
+
+    /**
+     * Predicts the time particle {@code i} crosses into a neighbouring cell. Particles never leave through the edges of the grid.
+     */
+    private void predictCrossing(int i){
+        int columns = cells.getColumns(), rows = cells.getRows();
+        int c = cells.cellOf(i);
+        int column = c % columns, row = c / columns;
+        double x = particles.getX(i), y = particles.getY(i), vX = particles.getVX(i), vY = particles.getVY(i);
+        double best = Double.POSITIVE_INFINITY;
+        int crossing = 0;
+        if (vX > 0 && column < columns-1){
+            best = (cells.columnLeft(column+1)-x)/vX;
+            crossing = crossRight;
+        } else if (vX < 0 && column > 0){
+            best = (cells.columnLeft(column)-x)/vX;
+            crossing = crossLeft;
+        }
+        double t = Double.POSITIVE_INFINITY;
+        if (vY > 0 && row < rows-1){
+            t = (cells.rowTop(row+1)-y)/vY;
+        } else if (vY < 0 && row > 0){
+            t = (cells.rowTop(row)-y)/vY;
+        }
+        if (t < best){
+            best = t;
+            crossing = vY > 0 ? crossDown : crossUp;
+        }
+        if (crossing != 0){
+            events.add(particles.getClock(i)+Math.max(0, best), i, crossing, particles.getCollisions(i), 0);
+        }
+    }
+
+    /**
+     * Moves particle {@code i} into the neighbouring cell it is crossing into,
+     * and predicts its collisions with the particles that it has come close enough to touch.
+     */
+    private void crossCell(int i, int crossing){
+        int columns = cells.getColumns(), rows = cells.getRows();
+        int c = cells.cellOf(i);
+        int column = c % columns, row = c / columns;
+        int newColumn = column+(crossing == crossRight ? 1 : crossing == crossLeft ? -1 : 0);
+        int newRow = row+(crossing == crossDown ? 1 : crossing == crossUp ? -1 : 0);
+        cells.move(i, newRow*columns+newColumn);
+
+        //Only the cells that were not already around the old cell hold particles that were not predicted yet
+        for (int nRow = Math.max(0, newRow-1); nRow <= Math.min(rows-1, newRow+1); nRow++){
+            for (int nColumn = Math.max(0, newColumn-1); nColumn <= Math.min(columns-1, newColumn+1); nColumn++){
+                if (Math.abs(nRow-row) > 1 || Math.abs(nColumn-column) > 1){
+                    predictInCell(i, nRow*columns+nColumn, false);
+                }
+            }
+        }
+        predictCrossing(i);
+    }
+
+    /**
+     * @return time from {@code now} until particle {@code i} (which is up to date at {@code now}) touches particle {@code j},
+     * or infinity if they are not approaching each other.
+     */
+    private double timeToParticle(int i, int j, double now){
+        double vXj = particles.getVX(j), vYj = particles.getVY(j), dt = now-particles.getClock(j);
+        double dx = particles.getX(j)+vXj*dt-particles.getX(i);
+        double dy = particles.getY(j)+vYj*dt-particles.getY(i);
+        double dvx = vXj-particles.getVX(i), dvy = vYj-particles.getVY(i);
+        double dvdr = dx*dvx+dy*dvy;
+        if (dvdr >= 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        double dvdv = dvx*dvx+dvy*dvy;
+        double sigma = particles.getRadius(i)+particles.getRadius(j);
+        double gap = dx*dx+dy*dy-sigma*sigma;
+        //Particles that are just touching collide straight away, while those that overlap (e.g. after switching from the other mode) pass through each other
+        if (gap <= 0){
+            return dx*dx+dy*dy < (sigma-overlapTolerance)*(sigma-overlapTolerance) ? Double.POSITIVE_INFINITY : 0;
+        }
+        double d = dvdr*dvdr-dvdv*gap;
+        return d < 0 ? Double.POSITIVE_INFINITY : -(dvdr+Math.sqrt(d))/dvdv;
+    }
+
+    /**
+     * @return time until particle {@code i} touches block {@code j} (a face or a corner), or infinity if it misses the block.
+     */
+    private double timeToBlock(int i, int j){
+        double left = -membrane.getHalfWidth(), right = membrane.getHalfWidth();
+        double top = membrane.getTop(j), bottom = membrane.getBottom(j);
+        double x = particles.getX(i), y = particles.getY(i), r = particles.getRadius(i);
+        double vX = particles.getVX(i), vY = particles.getVY(i);
+        //A particle overlapping the block is left to move out of it
+        double nx = x-Math.max(left, Math.min(right, x)), ny = y-Math.max(top, Math.min(bottom, y));
+        if (nx*nx+ny*ny < (r-overlapTolerance)*(r-overlapTolerance)){
+            return Double.POSITIVE_INFINITY;
+        }
+        double best = Double.POSITIVE_INFINITY;
+        //Faces - the center reaches the line lying r away from the face while being alongside the face
+        if (vX > 0 && x <= left) best = timeToFace(left-r-x, vX, y, vY, top, bottom, best);
+        if (vX < 0 && x >= right) best = timeToFace(right+r-x, vX, y, vY, top, bottom, best);
+        if (vY > 0 && y <= top) best = timeToFace(top-r-y, vY, x, vX, left, right, best);
+        if (vY < 0 && y >= bottom) best = timeToFace(bottom+r-y, vY, x, vX, left, right, best);
+        //Corners - the center comes within r of the corner
+        best = Math.min(best, timeToPoint(x-left, y-top, vX, vY, r));
+        best = Math.min(best, timeToPoint(x-right, y-top, vX, vY, r));
+        best = Math.min(best, timeToPoint(x-left, y-bottom, vX, vY, r));
+        best = Math.min(best, timeToPoint(x-right, y-bottom, vX, vY, r));
+        return best;
+    }
+
+    private static double timeToFace(double gap, double v, double along, double vAlong, double from, double to, double best){
+        double t = Math.max(0, gap/v);
+        double reached = along+vAlong*t;
+        return reached >= from && reached <= to ? Math.min(best, t) : best;
+    }
+
+    /**
+     * @return time until a point moving from ({@code dx}, {@code dy}) relative to a fixed point comes within {@code r} of it,
+     * or infinity if it never does.
+     */
+    private static double timeToPoint(double dx, double dy, double vx, double vy, double r){
+        double b = dx*vx+dy*vy;
+        if (b >= 0){
+            return Double.POSITIVE_INFINITY;
+        }
+        double vv = vx*vx+vy*vy;
+        double gap = dx*dx+dy*dy-r*r;
+        double d = b*b-vv*gap;
+        return d < 0 || gap <= 0 ? Double.POSITIVE_INFINITY : -(b+Math.sqrt(d))/vv;
+    }
+
+    /**
+     * Bounces two touching particles off each other. Each particle moving towards the other is reflected about the line joining their centers,
+     * so that they move apart while keeping their speed.
+     */
+    private void bounceOffParticle(int i, int j){
+        double nx = particles.getX(j)-particles.getX(i), ny = particles.getY(j)-particles.getY(i);
+        if (particles.getVX(i)*nx+particles.getVY(i)*ny > 0){
+            reflect(i, nx, ny);
+        }
+        if (particles.getVX(j)*nx+particles.getVY(j)*ny < 0){
+            reflect(j, nx, ny);
+        }
+    }
+
+    /**
+     * Bounces particle {@code i} off the boundary of the simulation area or a block it is touching.
+     */
+    private void bounceOffObstacle(int i, int obstacle){
+        if (obstacle == verticalWall){
+            particles.setVX(i, -particles.getVX(i));
+        } else if (obstacle == horizontalWall){
+            particles.setVY(i, -particles.getVY(i));
+        } else {
+            int j = firstBlock-obstacle;
+            //Reflect about the surface of the block where the particle touches it
+            double x = particles.getX(i), y = particles.getY(i);
+            double nx = membrane.normalX(j, x, y), ny = membrane.normalY(j, x, y);
+            if (particles.getVX(i)*nx+particles.getVY(i)*ny < 0){
+                reflect(i, nx, ny);
+            }
+        }
+    }
+
+    /**
+     * Reflects the direction of particle {@code i} about a line perpendicular to ({@code nx}, {@code ny}).
+     */
+    private void reflect(int i, double nx, double ny){
+        double vX = particles.getVX(i), vY = particles.getVY(i);
+        double k = 2*(vX*nx+vY*ny)/(nx*nx+ny*ny);
+        particles.setVX(i, vX-k*nx);
+        particles.setVY(i, vY-k*ny);
+    }
+
+    /**
+     * Gives all existing particles new randomized directions.
+     */
+    void resetAllDirections(){
+        for (int i = 0; i < count; i++){
+            setDirection(i);
+        }
+        eventsOutdated = true;
+    }
+
+    /**
+     * Checks for collision between particle {@code i} and particle {@code j} and, if they collided, updates both of them.
+     * Each of the two particles is only reflected if the other one is not the particle it last collided with.
+     */
+    private void collidePair(int i, int j){
+        double dx = particles.getX(j) - particles.getX(i);
+        double dy = particles.getY(j) - particles.getY(i);
+        double minDist = particles.getRadius(i) + particles.getRadius(j);
+        //Squared distances are compared to avoid a square root for every candidate pair
+        if (dx*dx+dy*dy < minDist*minDist){
+            int idI = particles.getId(i), idJ = particles.getId(j);
+            if (particles.getLastCollide(i) != idJ){
+                reflectBoth(i);
+                particles.setLastCollide(i, idJ);
+                work[TickMetrics.particleCollisions]++;
+            }
+            if (particles.getLastCollide(j) != idI){
+                reflectBoth(j);
+                particles.setLastCollide(j, idI);
+                work[TickMetrics.particleCollisions]++;
+            }
+        }
+    }
+
+    /**
+     * Checks for collision between particle {@code i} and particle {@code j} and, if they collided, updates particle {@code i} only.
+     *
+     * @return whether particle {@code i} bounced off particle {@code j}.
+     */
+    private boolean collideWith(int i, int j){
+        double dx = particles.getX(j) - particles.getX(i);
+        double dy = particles.getY(j) - particles.getY(i);
+        double minDist = particles.getRadius(i) + particles.getRadius(j);
+        if (dx*dx+dy*dy < minDist*minDist && particles.getLastCollide(i) != particles.getId(j)){
+            reflectBoth(i);
+            particles.setLastCollide(i, particles.getId(j));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether particle {@code i} is in close proximity with particle {@code j}.
+     */
+    private boolean closeTo(int i, int j){
+        double dx = particles.getX(j) - particles.getX(i);
+        double dy = particles.getY(j) - particles.getY(i);
+        double minDist = particles.getRadius(i) + particles.getRadius(j) + placementMargin;
+        return dx*dx+dy*dy < minDist*minDist;
+    }
+
+    /**
+     * Resets the direction of particle {@code i} to a new randomized direction.
+     */
+    private void setDirection(int i){
+        double angle = random.nextDouble(i+1)*2*Math.PI;
+        particles.setVX(i, Math.cos(angle));
+        particles.setVY(i, Math.sin(angle));
+    }
+
+    /**
+     * Changes the direction of movement of particle {@code i} to its opposite direction.
+     */
+    private void reflectBoth(int i){
+        //there is a 1 in 8 chance whereby the particle will reflect off in a path that differs from the path the particle previously took
+        if (random.nextInt(i+1, 8)==0){
+            //generate new values for vX and vY (through cos and sin since overall velocity has to be equal for all particles)
+            //within the quadrant of the general direction that the particle is supposed to travel in after the collision
+            double angle = random.nextDouble(i+1)*Math.PI/2;
+            double cos = Math.cos(angle);
+            double sin = Math.sin(angle);
+            particles.setVX(i, particles.getVX(i) > 0 ? -cos : cos);
+            particles.setVY(i, particles.getVY(i) > 0 ? -sin : sin);
+        //If not in the rare chance, particle travels back following the inverse of the path it previously took
+        } else {
+            particles.setVX(i, -particles.getVX(i));
+            particles.setVY(i, -particles.getVY(i));
+        }
+    }
+
+    /**
+     * Grows or shrinks the particles and their random streams, keeping existing particles.
+     */
+    private void allocate(int capacity){
+        random.setCapacity(capacity+1);
+        particles.setCapacity(capacity);
+    }
+
+    /**
+     * Sets the number of threads used to update the particles.
+     *
+     * @param threads Number of threads. With 1 thread, every update is done on the thread calling {@link #step()}.
+     */
+    void setParallelism(int threads){
+        if (pool != null){
+            pool.shutdown();
+        }
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Switches between the vectorized loops over particles (if the Vector API is available) and loops going through one particle at a time.
+     * Both give the same results.
+     */
+    void setVectorized(boolean vectorized){
+        kernel = vectorized ? ParticleKernel.fastest() : ParticleKernel.scalar();
+    }
+
+    boolean isVectorized(){
+        return !(kernel instanceof ScalarKernel);
+    }
+
+    /**
+     * Restricts the engine to the vertical strip of the area between {@code left} and {@code right}, when the area is split between several engines.
+     * New particles are only placed within the strip, and particles are only looked for within the strip and close to it.
+     * Walls and blocks are still those of the whole area. Takes effect upon the next {@link #initialize()}.
+     */
+    void setStrip(double left, double right){
+        stripLeft = left;
+        stripRight = right;
+    }
+
+    /**
+     * Chooses the ids of the particles added from the next {@link #initialize()}: {@code first}, then {@code first+stride}, and so on.
+     * Engines sharing an area are given different ids, so that a particle keeps an id of its own when moved to another engine.
+     */
+    void setIds(int first, int stride){
+        firstId = first;
+        idStride = stride;
+    }
+
+    /**
+     * Chooses whether particles are held in native memory outside of the heap (if the Foreign Memory API is available) or in arrays on the heap.
+     * Takes effect upon the next {@link #initialize()}.
+     */
+    void setOffHeap(boolean offHeap){
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return whether particles are currently held outside of the heap.
+     */
+    boolean isOffHeap(){
+        return !(particles instanceof HeapParticleStore);
+    }
+
+    /**
+     * Frees the memory holding the particles, leaving the engine without any particle until the next {@link #initialize()}.
+     * Native memory is only ever freed here, or when the particles are moved to another store.
+     */
+    void release(){
+        particles.close();
+        particles = ParticleStore.onHeap(0);
+        random.setCapacity(1);
+        count = 0;
+        Arrays.fill(speciesCount, 0);
+        Arrays.fill(rightCount, 0);
+        occupancyOutdated = true;
+        eventsOutdated = true;
+    }
+
+    int getParallelism(){
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Switches between checking collisions once per update duration and handling them at the exact time they happen.
+     *
+     * @param eventDriven Whether collisions are to be handled at the exact time they happen.
+     */
+    void setEventDriven(boolean eventDriven){
+        this.eventDriven = eventDriven;
+        eventsOutdated = true;
+    }
+
+    boolean isEventDriven(){
+        return eventDriven;
+    }
+
+    /**
+     * Sets where statistics of the updates are recorded. Recording is switched on and off through the metrics themselves.
+     *
+     * @param metrics Metrics to record into, or null for none.
+     */
+    void setMetrics(TickMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    /**
+     * Changes the seed of all the randomness of the simulation. Takes effect upon the next {@link #initialize()}.
+     */
+    void setSeed(long seed){
+        this.seed = seed;
+    }
+
+    long getSeed(){
+        return seed;
+    }
+
+    void setSpeed(double speed){
+        this.speed = speed;
+    }
+
+    double getSpeed(){
+        return speed;
+    }
+
+    int getHeight(){
+        return height;
+    }
+
+    int getWidth(){
+        return width;
+    }
+
+    int getPores(){
+        return pores;
+    }
+
+    int getCount(){
+        return count;
+    }
+
+    long getTick(){
+        return tick;
+    }
+
+    double getX(int i){
+        return particles.getX(i);
+    }
+
+    double getY(int i){
+        return particles.getY(i);
+    }
+
+    double getVX(int i){
+        return particles.getVX(i);
+    }
+
+    double getVY(int i){
+        return particles.getVY(i);
+    }
+
+    double getRadius(int i){
+        return particles.getRadius(i);
+    }
+
+    int getSpecies(int i){
+        return particles.getSpecies(i);
+    }
+
+    /**
+     * @return number of particles of the given species in the left division.
+     */
+    int getLeftCount(int particleSpecies){
+        return speciesCount[particleSpecies]-rightCount[particleSpecies];
+    }
+
+    /**
+     * @return number of particles of the given species in the right division.
+     */
+    int getRightCount(int particleSpecies){
+        return rightCount[particleSpecies];
+    }
+
+    /**
+     * @return number of times particles crossed the membrane during the last update.
+     */
+    int getLastCrossings(){
+        return (int)work[TickMetrics.membraneCrossings];
+    }
+
+    Membrane getMembrane(){
+        return membrane;
+    }
+
+    /**
+     * Part of an update covering a range of particles (integration, walls and blocks) or of cells of the grid (collisions between particles).
+     * Ranges are split in halves until they are small enough, and no two tasks of the same phase write to the same particle.
+     */
+    //Tasks are never serialized
+    @SuppressWarnings("serial")
+    private class StepTask extends RecursiveAction {
+        private final int phase;
+        private final int from, to;
+        private final double speed;
+        //Integration only - change in the number of particles of each species in the right division
+        private final int[] rightDelta = new int[2];
+        //Work done by the task, counted in the order of the counters of TickMetrics
+        private final long[] work = new long[TickMetrics.counters];
+
+        StepTask(int phase, int from, int to, double speed){
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+            this.speed = speed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to-from > (phase == collidePhase ? collideGrain : integrateGrain)){
+                int mid = (from+to) >>> 1;
+                StepTask first = new StepTask(phase, from, mid, speed), second = new StepTask(phase, mid, to, speed);
+                invokeAll(first, second);
+                rightDelta[0] = first.rightDelta[0]+second.rightDelta[0];
+                rightDelta[1] = first.rightDelta[1]+second.rightDelta[1];
+                for (int k = 0; k < work.length; k++){
+                    work[k] = first.work[k]+second.work[k];
+                }
+            } else if (phase == integratePhase){
+                updateParticles(from, to, speed, rightDelta, work);
+            } else if (phase == collidePhase){
+                checkCollisionsInCells(from, to, work);
+            } else if (phase == boundaryPhase){
+                work[TickMetrics.wallCollisions] += checkBoundary(from, to);
+            } else {
+                work[TickMetrics.blockCollisions] += checkMembrane(from, to);
+            }
+        }
+    }
+}
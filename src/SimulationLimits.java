@@ -10,7 +10,7 @@ import java.util.Locale;
  */
 public interface SimulationLimits {
     int MAX_PORES =  10;
-    int MAX_PARTICLES = 100;
+    int MAX_PARTICLES = 50000;
     int MAX_SIZE = 20;
     double MAX_SPEED =  10;
     int MAX_HEIGHT = 600;
@@ -22,9 +22,31 @@ public interface SimulationLimits {
     int MIN_HEIGHT = 100;
     int MIN_WIDTH = 200;
 
+    //Time between two updates of the simulation in milliseconds
+    int TIME_STEP = 20;
+
     int RESET_DELAY = 101;
     int RESET_RATE = 50;
 
+    //Whether particles are drawn in a single image (BatchedRenderer) instead of one node each (SimulationRenderer)
+    //Nodes are only able to keep up with a few hundred particles
+    boolean BATCHED_RENDERING = true;
+
+    //Number of particles per pixel of the area on screen beyond which BatchedRenderer shows how dense each species is instead of every particle
+    //Discs that many overlap each other anyway, while the density takes the same time to draw however many particles there are
+    double DENSITY_RENDERING_THRESHOLD = 0.1;
+
+    //Whether particles are shown moving smoothly between the last two states of the simulation instead of jumping from one state to the next
+    //Particles are then shown one update late, but move at every frame even when the display refreshes faster than the simulation updates
+    //States published more than a few time steps apart (and at least 100 ms) are shown as they are, since a pause or a command came in between
+    boolean INTERPOLATED_RENDERING = true;
+
+    //Whether the columns of state of the particles (see ParticleStore) are kept in native memory outside of the heap (only if the Foreign Memory API module is present)
+    //The heap then grows more slowly with the number of particles (the published snapshots are on the heap either way, but reused rather than allocated anew),
+    //which only matters for populations far beyond what can be drawn
+    //Needs JDK 17, the only release with the incubator version of the API used
+    boolean OFF_HEAP_PARTICLES = false;
+
     Color PARTICLE_COLOR_1 = Color.RED;
     Color PARTICLE_COLOR_2 = Color.BLUE;
 
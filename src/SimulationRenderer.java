@@ -0,0 +1,74 @@
+/**
+ * Copies the state of a {@code SimulationEngine} into the nodes of a {@code SimulationArea}, one node per particle.
+ * Nodes of removed particles are hidden and kept for particles added later, so the scene is only built again when the membrane changes.
+ *
+ * The engine never touches the scene graph, so this is the only place where particles and blocks are created and moved.
+ * {@link #render(FrameSnapshot, FrameSnapshot, double)} is to be called on the JavaFX application thread once per frame.
+ * Every node adds to the cost of layout, CSS and scene graph synchronization, so this view is only suitable for small populations
+ * - see {@code BatchedRenderer} for large ones.
+ */
+class SimulationRenderer implements SimulationView, SimulationLimits {
+
+    private SimulationArea area;
+    //Membrane currently shown, null if none
+    private Membrane membrane;
+
+    //Nodes currently shown (spares hidden) - particle i shows the i-th particle of the engine
+    private ObjectManager<Particle> allParticles;
+    private ObjectManager<Block> allBlocks;
+
+    SimulationRenderer(){
+        allParticles = new ObjectManager<>();
+        allBlocks = new ObjectManager<>();
+    }
+
+    @Override
+    public void rebuild(SimulationArea area){
+        this.area = area;
+        area.getChildren().clear();
+        allParticles.clearAll();
+        allBlocks.clearAll();
+        membrane = null;
+    }
+
+    @Override
+    public void render(FrameSnapshot previous, FrameSnapshot frame, double alpha){
+        //The engine was initialized since the last frame - start again from the new membrane
+        if (frame.getMembrane() != membrane){
+            rebuild(area);
+            membrane = frame.getMembrane();
+            for (int j = 0; j < membrane.getBlockCount(); j++){
+                //Blocks may reach past the area, only the part inside it is shown
+                double top = Math.max(membrane.getTop(j), -frame.getHeight()/2.0);
+                double bottom = Math.min(membrane.getBottom(j), frame.getHeight()/2.0);
+                Block temp = new Block(bottom-top);
+                temp.setTranslateY((top+bottom)/2);
+                area.getChildren().add(temp);
+                allBlocks.add(temp);
+            }
+        }
+
+        //Show particles that were added to the engine since the last frame, with spare nodes if there are any
+        for (int i = allParticles.getNumber(); i < frame.getCount(); i++){
+            Particle spare = allParticles.reuse();
+            if (spare != null){
+                spare.setVisible(true);
+            } else {
+                Atom newAtom = new Atom(frame.getSpecies(i) == 0 ? PARTICLE_COLOR_1 : PARTICLE_COLOR_2, frame.getRadius(i));
+                area.getChildren().add(newAtom);
+                allParticles.add(newAtom);
+            }
+        }
+        //Hide the nodes of particles that were removed, keeping them in the scene to be reused
+        while (allParticles.getNumber() > frame.getCount()){
+            allParticles.remove(allParticles.getNumber()-1).setVisible(false);
+        }
+
+        for (int i = 0; i < frame.getCount(); i++){
+            Particle particle = allParticles.get(i);
+            //The engine moves the last particle into the index of a removed one, so a node may show another particle than in the last frame
+            particle.restyle(frame.getSpecies(i) == 0 ? PARTICLE_COLOR_1 : PARTICLE_COLOR_2, frame.getRadius(i));
+            particle.moveTo(frame.getX(i, previous, alpha), frame.getY(i, previous, alpha));
+        }
+    }
+}
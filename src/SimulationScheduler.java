@@ -0,0 +1,266 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runs a {@code SimulationEngine} on a dedicated thread at a fixed time step.
+ *
+ * After each update duration a {@code FrameSnapshot} may be published; the GUI picks up the latest one on its own pulse,
+ * so a slow frame never holds the simulation back and snapshots that were not picked up in time are simply skipped.
+ * The scheduler holds the latest snapshot until it publishes the next one, so a skipped snapshot is reused for a later state straight away.
+ * A time step of 0 runs the engine as fast as possible.
+ *
+ * The engine is only ever touched by the simulation thread (or by the thread calling {@link #start()} while the simulation thread is stopped).
+ * Other threads change it by submitting commands, which are queued without locking and applied at the start of the next update,
+ * and read it through the published snapshots.
+ */
+class SimulationScheduler implements Runnable {
+
+    //When running as fast as possible, snapshots are published at most this often (in nanoseconds)
+    private static final long fastPublishInterval = 4_000_000;
+    //If the simulation falls behind by more than this many time steps, the missed steps are dropped instead of being caught up in a burst
+    private static final int maxLagSteps = 5;
+
+    private final SimulationEngine engine;
+    private final AtomicReference<FrameSnapshot> latestFrame;
+    //Changes to the engine requested by other threads, in the order they were submitted
+    private final ConcurrentLinkedQueue<Consumer<SimulationEngine>> commands;
+
+    private volatile long timeStepNanos;
+    private volatile boolean paused;
+    private volatile boolean running;
+    private volatile Thread thread;
+    //Where every update is recorded, null if none
+    private volatile TrajectoryRecorder recorder;
+    //Where the concentrations after every update are exported, null if none
+    private volatile ConcentrationExporter exporter;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param engine Engine to advance.
+     * @param timeStepMillis Time between two updates in milliseconds, or 0 to run as fast as possible.
+     */
+    SimulationScheduler(SimulationEngine engine, double timeStepMillis){
+        this.engine = engine;
+        latestFrame = new AtomicReference<>();
+        commands = new ConcurrentLinkedQueue<>();
+        setTimeStep(timeStepMillis);
+    }
+
+    /**
+     * Applies the commands submitted so far, publishes the current state and starts advancing the engine.
+     */
+    void start(){
+        applyCommands();
+        publish(engine.snapshot());
+        paused = false;
+        running = true;
+        thread = new Thread(this, "Simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops advancing the engine and waits for the simulation thread to finish its current update.
+     */
+    void stop(){
+        running = false;
+        if (thread != null){
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    void pause(){
+        paused = true;
+    }
+
+    void resume(){
+        paused = false;
+        if (thread != null){
+            LockSupport.unpark(thread);
+        }
+    }
+
+    boolean isPaused(){
+        return paused;
+    }
+
+    /**
+     * Changes the time between two updates.
+     *
+     * @param timeStepMillis Time step in milliseconds, or 0 to run as fast as possible.
+     */
+    void setTimeStep(double timeStepMillis){
+        timeStepNanos = (long)(timeStepMillis*1_000_000);
+    }
+
+    double getTimeStep(){
+        return timeStepNanos/1_000_000.0;
+    }
+
+    /**
+     * @return time between two published snapshots in nanoseconds while the simulation keeps up - the time step, or the shortest time
+     * between two snapshots when running as fast as possible.
+     */
+    long getPublishInterval(){
+        long period = timeStepNanos;
+        return period > 0 ? period : fastPublishInterval;
+    }
+
+    /**
+     * Requests a change to the engine. The change is made on the simulation thread before the next update, even if the simulation is paused,
+     * and shown in the next published snapshot. If the simulation thread is stopped, the change is made when it is started again.
+     *
+     * @param command Change to make.
+     */
+    void submit(Consumer<SimulationEngine> command){
+        commands.offer(command);
+        Thread t = thread;
+        if (t != null){
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Starts or stops handing a snapshot of every update to a recorder. The recorder never holds the simulation thread back.
+     *
+     * @param recorder Recorder to hand the snapshots to, or null to stop recording.
+     */
+    void setRecorder(TrajectoryRecorder recorder){
+        this.recorder = recorder;
+    }
+
+    /**
+     * Starts or stops handing the concentrations after every update to an exporter. The exporter never holds the simulation thread back.
+     *
+     * @param exporter Exporter to hand the concentrations to, or null to stop exporting.
+     */
+    void setExporter(ConcentrationExporter exporter){
+        this.exporter = exporter;
+    }
+
+    /**
+     * Publishes the current state of the engine immediately.
+     * This method is only to be called from a command, so that the state is published before the command reports its result.
+     */
+    void publish(){
+        publish(engine.snapshot());
+    }
+
+    /**
+     * Replaces the latest snapshot by another, held by the caller, and gives up the hold of the one replaced.
+     */
+    private void publish(FrameSnapshot frame){
+        FrameSnapshot replaced = latestFrame.getAndSet(frame);
+        if (replaced != null){
+            replaced.release();
+        }
+    }
+
+    /**
+     * Applies all commands submitted so far.
+     *
+     * @return whether any command was applied.
+     */
+    private boolean applyCommands(){
+        boolean applied = false;
+        Consumer<SimulationEngine> command;
+        while ((command = commands.poll()) != null){
+            command.accept(engine);
+            applied = true;
+        }
+        return applied;
+    }
+
+    /**
+     * Holds the most recently published snapshot, so that it is not reused while it is read.
+     *
+     * @return most recently published snapshot, to be released once read, or null if none was published.
+     */
+    FrameSnapshot acquireLatestFrame(){
+        while (true){
+            FrameSnapshot frame = latestFrame.get();
+            if (frame == null){
+                return null;
+            }
+            //The snapshot may have been replaced and given back between reading it and holding it, in which case it is let go and the next one is tried
+            if (frame.retain()){
+                if (latestFrame.get() == frame){
+                    return frame;
+                }
+                frame.release();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long period = timeStepNanos;
+        long next = System.nanoTime();
+        long lastPublished = next;
+        while (running){
+            boolean changed = applyCommands();
+            if (paused){
+                //Changes made while paused are published straight away, since no update is going to publish them
+                if (changed){
+                    publish(engine.snapshot());
+                }
+                LockSupport.park(this);
+                next = System.nanoTime();
+                continue;
+            }
+            //Restart the schedule whenever the time step is changed
+            if (period != timeStepNanos){
+                period = timeStepNanos;
+                next = System.nanoTime();
+            }
+
+            if (period > 0){
+                long wait = next-System.nanoTime();
+                //Wait for the next update - a submitted command wakes the thread up early, so it is applied before going back to waiting
+                if (wait > 0){
+                    LockSupport.parkNanos(this, wait);
+                    continue;
+                } else if (-wait > maxLagSteps*period){
+                    next = System.nanoTime();
+                }
+                next += period;
+            }
+
+            long now = System.nanoTime();
+            boolean publish = period > 0 || now-lastPublished >= fastPublishInterval;
+            engine.step();
+            ConcentrationExporter exporter = this.exporter;
+            if (exporter != null){
+                exporter.record(engine);
+            }
+            //A recorded update is published from the same snapshot, which is then held by both
+            //The recorder is asked for room first, so that no snapshot is taken only to be dropped
+            TrajectoryRecorder recorder = this.recorder;
+            if (recorder != null && !recorder.tryReserve()){
+                recorder = null;
+            }
+            if (publish || recorder != null){
+                FrameSnapshot frame = engine.snapshot();
+                if (recorder != null){
+                    if (publish){
+                        frame.retain();
+                    }
+                    recorder.record(frame);
+                }
+                if (publish){
+                    publish(frame);
+                    lastPublished = now;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+/**
+ * Shows the state of a {@code SimulationEngine} in a {@code SimulationArea}.
+ *
+ * Everything shown is read from the snapshots published by the simulation thread, never from the engine itself.
+ * Both methods are to be called on the JavaFX application thread.
+ */
+interface SimulationView {
+
+    /**
+     * Clears the given area and shows the simulation in it from the next frame on.
+     *
+     * @param area Area to show the simulation in.
+     */
+    void rebuild(SimulationArea area);
+
+    /**
+     * Brings the area up to date with a snapshot of the engine, rebuilding the membrane if it changed since the last frame.
+     * Particles are shown part of the way from where they were in an earlier snapshot, so that they move smoothly whatever the frame rate.
+     *
+     * @param previous Earlier snapshot particles are shown moving from, or null if none.
+     * @param frame Snapshot to show.
+     * @param alpha How far particles have moved from {@code previous} to {@code frame} (0 to 1).
+     */
+    void render(FrameSnapshot previous, FrameSnapshot frame, double alpha);
+}
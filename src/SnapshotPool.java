@@ -0,0 +1,43 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Spare {@code FrameSnapshot}s of an engine, so that publishing a state reuses the arrays of a snapshot no reader holds any more
+ * instead of allocating new ones for every particle.
+ *
+ * Snapshots are only taken by the thread updating the engine, and given back by whichever thread releases them last, without locking.
+ * Only a few spares are kept - a snapshot given back while every slot is full is left to the garbage collector, as is a snapshot that is never released.
+ */
+class SnapshotPool {
+
+    //Snapshots held at once are the latest published, the two shown by the GUI, one being read by another thread and those waiting to be recorded
+    private static final int spares = 8;
+
+    private final AtomicReferenceArray<FrameSnapshot> slots = new AtomicReferenceArray<>(spares);
+
+    /**
+     * @return a spare snapshot, or a new one if there are no spares, held once by the caller.
+     */
+    FrameSnapshot take(){
+        for (int s = 0; s < spares; s++){
+            FrameSnapshot frame = slots.getAndSet(s, null);
+            if (frame != null){
+                frame.hold();
+                return frame;
+            }
+        }
+        FrameSnapshot frame = new FrameSnapshot(this);
+        frame.hold();
+        return frame;
+    }
+
+    /**
+     * Keeps a snapshot no longer held by anyone as a spare, if there is room for it.
+     */
+    void put(FrameSnapshot frame){
+        for (int s = 0; s < spares; s++){
+            if (slots.compareAndSet(s, null, frame)){
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Uniform grid over the simulation area used as the broad phase of particle collision checks.
+ *
+ * Cells are as wide as the largest possible distance between the centers of two touching particles (twice {@code MAX_SIZE}),
+ * so a particle can only touch particles in its own cell or in one of the 8 surrounding cells.
+ * The grid is rebuilt from scratch every update duration with a counting sort, which needs no allocation once the arrays are large enough.
+ */
+class SpatialGrid implements SimulationLimits {
+
+    //Visiting a cell and these 4 neighbours (right, bottom left, bottom, bottom right) from every cell covers every pair of neighbouring cells exactly once
+    private static final int[] forwardColumn = {1, -1, 0, 1};
+    private static final int[] forwardRow = {0, 1, 1, 1};
+
+    private final double cellSize;
+    private int columns, rows;
+    private double left, top;
+
+    //cellStart[c]..cellStart[c+1]-1 are the positions in cellItems of the particles in cell c
+    private int[] cellStart;
+    private int[] cellItems;
+    //Cell of each particle, as of the last rebuild
+    private int[] cellOf;
+
+    SpatialGrid(){
+        this(2*MAX_SIZE);
+    }
+
+    SpatialGrid(double cellSize){
+        this.cellSize = cellSize;
+        cellItems = new int[0];
+        cellOf = new int[0];
+        resize(MIN_HEIGHT, MIN_WIDTH);
+    }
+
+    /**
+     * Changes the dimensions of the area covered by the grid.
+     *
+     * @param height Height of the simulation area.
+     * @param width Width of the simulation area.
+     */
+    void resize(int height, int width){
+        resize(height, -width/2.0, width/2.0);
+    }
+
+    /**
+     * Changes the area covered by the grid to a vertical strip of the simulation area.
+     *
+     * @param height Height of the simulation area.
+     * @param left Horizontal position of the left edge of the strip.
+     * @param right Horizontal position of the right edge of the strip.
+     */
+    void resize(int height, double left, double right){
+        columns = Math.max(1, (int)Math.ceil((right-left)/cellSize));
+        rows = Math.max(1, (int)Math.ceil(height/cellSize));
+        this.left = left;
+        top = -height/2.0;
+        cellStart = new int[columns*rows+1];
+    }
+
+    /**
+     * Sorts the given particles into their cells.
+     *
+     * @param particles Particles to sort, of which only the positions are read.
+     * @param count Number of particles.
+     */
+    void rebuild(ParticleStore particles, int count){
+        if (cellItems.length < count){
+            cellItems = new int[particles.getCapacity()];
+            cellOf = new int[particles.getCapacity()];
+        }
+        int cells = columns*rows;
+        for (int c = 0; c <= cells; c++){
+            cellStart[c] = 0;
+        }
+        //Count the particles in each cell
+        for (int i = 0; i < count; i++){
+            int c = cellAt(particles.getX(i), particles.getY(i));
+            cellOf[i] = c;
+            cellStart[c+1]++;
+        }
+        //Turn the counts into the position of the first particle of each cell
+        for (int c = 0; c < cells; c++){
+            cellStart[c+1] += cellStart[c];
+        }
+        //Place each particle, using the start of the next cell as the insertion point before shifting it back
+        for (int i = 0; i < count; i++){
+            cellItems[cellStart[cellOf[i]]++] = i;
+        }
+        for (int c = cells; c > 0; c--){
+            cellStart[c] = cellStart[c-1];
+        }
+        cellStart[0] = 0;
+    }
+
+    /**
+     * Calls {@code visitor} once for every pair of particles lying in the same or in neighbouring cells.
+     *
+     * @param visitor Callback for each candidate pair.
+     */
+    void forEachCandidatePair(PairVisitor visitor){
+        for (int row = 0; row < rows; row++){
+            for (int column = 0; column < columns; column++){
+                int c = row*columns+column;
+                int start = cellStart[c], end = cellStart[c+1];
+                for (int a = start; a < end; a++){
+                    int i = cellItems[a];
+                    //Pairs within the same cell
+                    for (int b = a+1; b < end; b++){
+                        visitor.visit(i, cellItems[b]);
+                    }
+                    //Pairs with the forward neighbours
+                    for (int k = 0; k < forwardColumn.length; k++){
+                        int nColumn = column+forwardColumn[k], nRow = row+forwardRow[k];
+                        if (nColumn < 0 || nColumn >= columns || nRow >= rows) continue;
+                        int n = nRow*columns+nColumn;
+                        for (int b = cellStart[n]; b < cellStart[n+1]; b++){
+                            visitor.visit(i, cellItems[b]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the pairs visited by {@link #forEachCandidatePair(PairVisitor)} from the number of particles in each cell, without visiting them.
+     */
+    long countCandidatePairs(){
+        long pairs = 0;
+        for (int row = 0; row < rows; row++){
+            for (int column = 0; column < columns; column++){
+                int c = row*columns+column;
+                long n = cellStart[c+1]-cellStart[c];
+                pairs += n*(n-1)/2;
+                for (int k = 0; k < forwardColumn.length; k++){
+                    int nColumn = column+forwardColumn[k], nRow = row+forwardRow[k];
+                    if (nColumn < 0 || nColumn >= columns || nRow >= rows) continue;
+                    int neighbour = nRow*columns+nColumn;
+                    pairs += n*(cellStart[neighbour+1]-cellStart[neighbour]);
+                }
+            }
+        }
+        return pairs;
+    }
+
+    int getColumns(){
+        return columns;
+    }
+
+    int getRows(){
+        return rows;
+    }
+
+    int getCellCount(){
+        return columns*rows;
+    }
+
+    /**
+     * @return position in the sorted order of the first particle in cell {@code c}.
+     */
+    int cellStart(int c){
+        return cellStart[c];
+    }
+
+    /**
+     * @return position in the sorted order after the last particle in cell {@code c}.
+     */
+    int cellEnd(int c){
+        return cellStart[c+1];
+    }
+
+    /**
+     * @return particle at position {@code k} in the sorted order.
+     */
+    int itemAt(int k){
+        return cellItems[k];
+    }
+
+    /**
+     * Finds the cell containing a point. Points outside of the area are placed in the nearest cell.
+     */
+    int cellAt(double x, double y){
+        int column = (int)((x-left)/cellSize);
+        int row = (int)((y-top)/cellSize);
+        if (column < 0) column = 0; else if (column >= columns) column = columns-1;
+        if (row < 0) row = 0; else if (row >= rows) row = rows-1;
+        return row*columns+column;
+    }
+
+    /**
+     * Callback for the pairs found by {@link #forEachCandidatePair(PairVisitor)}.
+     */
+    interface PairVisitor {
+        void visit(int i, int j);
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One of the processes of a {@code DistributedRunner}, simulating a vertical strip of the area on its own engine.
+ *
+ * Every update, each worker:
+ * - moves its particles ({@link SimulationEngine#beginStripStep()}),
+ * - hands the particles that left its strip over to the neighbour they moved into, keeping them in its own halo for that update,
+ * - sends its particles close enough to an edge to touch particles of the neighbour on that side to the halo of that neighbour,
+ * - checks collisions of its particles with its particles and halo ({@link SimulationEngine#endStripStep()}).
+ * A strip is wider than a particle moves in an update plus both halos, so particles only ever move into a neighbouring strip.
+ * Particles crossing the membrane are counted by the strip they are in when crossing, and particles moving to another strip
+ * are counted again on the side they are on by the strip they move into, so the numbers of each division add up over all strips.
+ *
+ * Workers are connected to the coordinator and to their neighbours by sockets. A worker connects to its left neighbour and is connected to
+ * by its right neighbour, and even workers send to their neighbours before receiving from them while odd workers receive first,
+ * so that no two neighbours ever wait on each other.
+ *
+ * Usage: {@code java StripWorker <coordinator host> <coordinator port>} - normally started by the coordinator itself.
+ */
+public class StripWorker implements SimulationLimits {
+
+    //Distance from the edge of a strip within which a particle may touch a particle of the neighbouring strip
+    static final double haloWidth = 2*MAX_SIZE;
+
+    //Bytes before the particles of a message to a neighbour: number of particles handed over, then number of particles of the halo
+    private static final int headerLength = 8;
+
+    /**
+     * Everything a worker is told by the coordinator before it starts.
+     */
+    static final class Setup {
+        final int index, workers;
+        final int height, width, pores;
+        final double speed;
+        //Horizontal positions of the edges of the strip
+        final double left, right;
+        final int size1, size2;
+        //Number of particles added to the strip in each division
+        final int left1, right1, left2, right2;
+        final long seed, ticks;
+        //Number of updates between two samples sent to the coordinator
+        final int sampleRate;
+        final int threads;
+        //Where the left neighbour is waiting for this worker to connect (unused for the first worker)
+        final String neighbourHost;
+        final int neighbourPort;
+
+        Setup(int index, int workers, int height, int width, int pores, double speed, double left, double right, int size1, int size2,
+              int left1, int right1, int left2, int right2, long seed, long ticks, int sampleRate, int threads, String neighbourHost, int neighbourPort){
+            this.index = index;
+            this.workers = workers;
+            this.height = height;
+            this.width = width;
+            this.pores = pores;
+            this.speed = speed;
+            this.left = left;
+            this.right = right;
+            this.size1 = size1;
+            this.size2 = size2;
+            this.left1 = left1;
+            this.right1 = right1;
+            this.left2 = left2;
+            this.right2 = right2;
+            this.seed = seed;
+            this.ticks = ticks;
+            this.sampleRate = sampleRate;
+            this.threads = threads;
+            this.neighbourHost = neighbourHost;
+            this.neighbourPort = neighbourPort;
+        }
+
+        /**
+         * @return the setup, ready to be sent.
+         */
+        ByteBuffer write(){
+            byte[] host = neighbourHost.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer out = ByteBuffer.allocate(15*4+5*8+host.length);
+            out.putInt(index).putInt(workers).putInt(height).putInt(width).putInt(pores).putDouble(speed)
+                    .putDouble(left).putDouble(right).putInt(size1).putInt(size2)
+                    .putInt(left1).putInt(right1).putInt(left2).putInt(right2)
+                    .putLong(seed).putLong(ticks).putInt(sampleRate).putInt(threads)
+                    .putInt(neighbourPort).putInt(host.length).put(host);
+            return out.flip();
+        }
+
+        /**
+         * Reads a setup written by {@link #write()}.
+         */
+        static Setup read(ByteBuffer in){
+            int index = in.getInt(), workers = in.getInt();
+            int height = in.getInt(), width = in.getInt(), pores = in.getInt();
+            double speed = in.getDouble();
+            double left = in.getDouble(), right = in.getDouble();
+            int size1 = in.getInt(), size2 = in.getInt();
+            int left1 = in.getInt(), right1 = in.getInt(), left2 = in.getInt(), right2 = in.getInt();
+            long seed = in.getLong(), ticks = in.getLong();
+            int sampleRate = in.getInt(), threads = in.getInt();
+            int neighbourPort = in.getInt();
+            byte[] host = new byte[in.getInt()];
+            in.get(host);
+            return new Setup(index, workers, height, width, pores, speed, left, right, size1, size2, left1, right1, left2, right2,
+                    seed, ticks, sampleRate, threads, new String(host, StandardCharsets.UTF_8), neighbourPort);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2){
+            System.err.println("Usage: java StripWorker <coordinator host> <coordinator port>");
+            System.exit(2);
+        }
+        try (SocketChannel coordinator = SocketChannel.open(new InetSocketAddress(args[0], Integer.parseInt(args[1])));
+             ServerSocketChannel server = ServerSocketChannel.open()){
+            //Neighbours reach this worker through the same address as the coordinator does
+            InetAddress local = ((InetSocketAddress)coordinator.getLocalAddress()).getAddress();
+            server.bind(new InetSocketAddress(local, 0));
+            byte[] host = local.getHostAddress().getBytes(StandardCharsets.UTF_8);
+            send(coordinator, ByteBuffer.allocate(8+host.length).putInt(server.socket().getLocalPort()).putInt(host.length).put(host).flip());
+
+            Setup setup = Setup.read(receive(coordinator, null));
+            //The left neighbour is already listening, so connecting to it first never waits on the right neighbour
+            try (SocketChannel left = setup.index > 0 ? SocketChannel.open(new InetSocketAddress(setup.neighbourHost, setup.neighbourPort)) : null;
+                 SocketChannel right = setup.index < setup.workers-1 ? server.accept() : null){
+                run(setup, coordinator, left, right);
+            }
+        }
+    }
+
+    /**
+     * Simulates the strip for the number of updates of the setup, resetting directions as the GUI does,
+     * and sends the number of particles of each species in each division of the strip to the coordinator every {@code sampleRate} updates
+     * (including before the first update and after the last one).
+     *
+     * @param left Link to the left neighbour, null if the strip is the leftmost one.
+     * @param right Link to the right neighbour, null if the strip is the rightmost one.
+     */
+    static void run(Setup setup, SocketChannel coordinator, SocketChannel left, SocketChannel right) throws IOException {
+        SimulationEngine engine = new SimulationEngine(setup.height, setup.width, setup.pores);
+        engine.setSeed(setup.seed);
+        engine.setSpeed(setup.speed);
+        engine.setParallelism(setup.threads);
+        engine.setStrip(setup.left, setup.right);
+        engine.setIds(setup.index, setup.workers);
+        engine.initialize();
+        engine.addParticles(0, setup.size1, -1, setup.left1);
+        engine.addParticles(0, setup.size1, 1, setup.right1);
+        engine.addParticles(1, setup.size2, -1, setup.left2);
+        engine.addParticles(1, setup.size2, 1, setup.right2);
+        ByteBuffer sample = ByteBuffer.allocate(8+4*4);
+        sendSample(engine, coordinator, sample);
+
+        SocketChannel[] links = {left, right};
+        ByteBuffer[] out = {ByteBuffer.allocate(1024), ByteBuffer.allocate(1024)};
+        ByteBuffer[] in = new ByteBuffer[2];
+        int[] migrants = new int[2], halo = new int[2];
+        //Particles handed over during the current update, still in reach of the particles of this strip
+        ByteBuffer own = ByteBuffer.allocate(1024);
+        try {
+            while (engine.getTick() < setup.ticks){
+                engine.beginStripStep();
+
+                for (int side = 0; side < 2; side++){
+                    out[side].clear().position(headerLength);
+                }
+                own.clear();
+                migrants[0] = migrants[1] = 0;
+                int owned = 0;
+                //Going down, the particle taking the place of a removed one was already looked at
+                for (int i = engine.getCount()-1; i >= 0; i--){
+                    double x = engine.getX(i);
+                    int side = x < setup.left && left != null ? 0 : x >= setup.right && right != null ? 1 : -1;
+                    if (side >= 0){
+                        out[side] = ensureRemaining(out[side], SimulationEngine.particleLength);
+                        engine.writeParticle(i, out[side]);
+                        migrants[side]++;
+                        own = ensureRemaining(own, SimulationEngine.haloLength);
+                        engine.writeHaloParticle(i, own);
+                        owned++;
+                        engine.removeParticle(i);
+                    }
+                }
+                halo[0] = halo[1] = 0;
+                for (int i = 0; i < engine.getCount(); i++){
+                    double x = engine.getX(i);
+                    if (left != null && x < setup.left+haloWidth){
+                        out[0] = ensureRemaining(out[0], SimulationEngine.haloLength);
+                        engine.writeHaloParticle(i, out[0]);
+                        halo[0]++;
+                    }
+                    if (right != null && x >= setup.right-haloWidth){
+                        out[1] = ensureRemaining(out[1], SimulationEngine.haloLength);
+                        engine.writeHaloParticle(i, out[1]);
+                        halo[1]++;
+                    }
+                }
+                for (int side = 0; side < 2; side++){
+                    out[side].putInt(0, migrants[side]).putInt(4, halo[side]).flip();
+                }
+
+                if (setup.index % 2 == 0){
+                    sendToNeighbours(links, out);
+                    receiveFromNeighbours(links, in);
+                } else {
+                    receiveFromNeighbours(links, in);
+                    sendToNeighbours(links, out);
+                }
+
+                //The engine takes in particles before any halo
+                for (int side = 0; side < 2; side++){
+                    if (links[side] != null){
+                        migrants[side] = in[side].getInt();
+                        halo[side] = in[side].getInt();
+                        for (int k = 0; k < migrants[side]; k++){
+                            engine.readParticle(in[side]);
+                        }
+                    }
+                }
+                for (int side = 0; side < 2; side++){
+                    if (links[side] != null){
+                        for (int k = halo[side]; k > 0; k--){
+                            engine.readHaloParticle(in[side]);
+                        }
+                    }
+                }
+                own.flip();
+                for (int k = 0; k < owned; k++){
+                    engine.readHaloParticle(own);
+                }
+
+                engine.endStripStep();
+                long tick = engine.getTick();
+                if (BatchRunner.isResetTick(tick)){
+                    engine.resetAllDirections();
+                }
+                if (tick % setup.sampleRate == 0 || tick == setup.ticks){
+                    sendSample(engine, coordinator, sample);
+                }
+            }
+        } finally {
+            engine.setParallelism(1);
+            engine.release();
+        }
+    }
+
+    private static void sendSample(SimulationEngine engine, SocketChannel coordinator, ByteBuffer sample) throws IOException {
+        sample.clear().putLong(engine.getTick())
+                .putInt(engine.getLeftCount(0)).putInt(engine.getRightCount(0)).putInt(engine.getLeftCount(1)).putInt(engine.getRightCount(1));
+        send(coordinator, sample.flip());
+    }
+
+    private static void sendToNeighbours(SocketChannel[] links, ByteBuffer[] out) throws IOException {
+        for (int side = 0; side < 2; side++){
+            if (links[side] != null){
+                send(links[side], out[side]);
+            }
+        }
+    }
+
+    private static void receiveFromNeighbours(SocketChannel[] links, ByteBuffer[] in) throws IOException {
+        for (int side = 0; side < 2; side++){
+            if (links[side] != null){
+                in[side] = receive(links[side], in[side]);
+            }
+        }
+    }
+
+    /**
+     * @return {@code buffer}, or a copy of it twice as large if fewer than {@code bytes} bytes are left in it.
+     */
+    private static ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes){
+        if (buffer.remaining() >= bytes){
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity()*2, buffer.position()+bytes));
+        return larger.put(buffer.flip());
+    }
+
+    /**
+     * Sends the remaining bytes of {@code message}, preceded by their number.
+     */
+    static void send(SocketChannel channel, ByteBuffer message) throws IOException {
+        ByteBuffer[] parts = {ByteBuffer.allocate(4).putInt(0, message.remaining()), message};
+        while (parts[0].hasRemaining() || message.hasRemaining()){
+            channel.write(parts);
+        }
+    }
+
+    /**
+     * Receives a message sent by {@link #send(SocketChannel, ByteBuffer)}.
+     *
+     * @param buffer Buffer to receive into if large enough, null for a new one.
+     * @return buffer holding the message, from its first byte to its last.
+     * @throws EOFException if the channel was closed before the whole message came.
+     */
+    static ByteBuffer receive(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length);
+        int bytes = length.getInt(0);
+        if (buffer == null || buffer.capacity() < bytes){
+            buffer = ByteBuffer.allocate(Math.max(bytes, buffer == null ? 0 : buffer.capacity()*2));
+        }
+        buffer.clear().limit(bytes);
+        readFully(channel, buffer);
+        return buffer.flip();
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            if (channel.read(buffer) < 0){
+                throw new EOFException("Connection closed");
+            }
+        }
+    }
+}
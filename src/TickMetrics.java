@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statistics of the updates of a {@code SimulationEngine} and of the frames drawn from it.
+ *
+ * The duration of each phase of an update is recorded in a {@code LatencyHistogram}, and the work done during the update
+ * (candidate pairs tested, collisions and membrane crossings) is added up, both in total and per second.
+ * Updates are recorded by the simulation thread and frames by the JavaFX application thread; statistics can be read from any thread,
+ * e.g. through JMX. Nothing is recorded while disabled, which is the default.
+ */
+class TickMetrics implements TickMetricsMXBean {
+
+    //Phases that are timed - updates of a strip of a larger area time their own phases, without the exchange with the neighbouring strips
+    static final int integrate = 0;
+    static final int pairs = 1;
+    static final int walls = 2;
+    static final int blocks = 3;
+    static final int events = 4;
+    static final int render = 5;
+    static final int update = 6;
+    private static final String[] phaseNames = {"integrate", "pairs", "walls", "blocks", "events", "render", "update"};
+
+    //Kinds of work counted during an update
+    static final int candidatePairs = 0;
+    static final int particleCollisions = 1;
+    static final int wallCollisions = 2;
+    static final int blockCollisions = 3;
+    static final int membraneCrossings = 4;
+    static final int counters = 5;
+    private static final String[] counterNames = {"candidatePairs", "particleCollisions", "wallCollisions", "blockCollisions", "membraneCrossings"};
+
+    //Rates per second are worked out over windows of this length (in nanoseconds)
+    private static final long rateWindow = 1_000_000_000;
+
+    private volatile boolean enabled;
+    private volatile boolean resetRequested;
+    private final LatencyHistogram[] phases;
+
+    //Totals since the last reset, only written by the simulation thread
+    private volatile long ticks;
+    private final long[] totals;
+    //Totals at the start of the current window, and rates over the last full window (ticks first, then each counter)
+    private long windowStart, windowTicks;
+    private final long[] windowTotals;
+    private volatile double[] rates;
+
+    TickMetrics(){
+        phases = new LatencyHistogram[phaseNames.length];
+        for (int p = 0; p < phases.length; p++){
+            phases[p] = new LatencyHistogram();
+        }
+        totals = new long[counters];
+        windowTotals = new long[counters];
+        rates = new double[counters+1];
+    }
+
+    /**
+     * Records the duration of one phase of an update, or of drawing a frame.
+     *
+     * @param phase Phase that was timed.
+     * @param nanos Duration of the phase in nanoseconds.
+     */
+    void record(int phase, long nanos){
+        phases[phase].record(nanos);
+    }
+
+    /**
+     * Records the end of an update.
+     *
+     * @param work Work done during the update, counted in the order of the counter constants.
+     * @param nanos Duration of the whole update in nanoseconds.
+     * @param now Current value of {@code System.nanoTime()}.
+     */
+    void recordTick(long[] work, long nanos, long now){
+        if (resetRequested){
+            ticks = 0;
+            Arrays.fill(totals, 0);
+            windowStart = 0;
+            resetRequested = false;
+        }
+        phases[update].record(nanos);
+        for (int k = 0; k < counters; k++){
+            totals[k] += work[k];
+        }
+        ticks++;
+
+        //Work out the rates once per window - the first update only starts a window
+        if (windowStart == 0 || now-windowStart >= rateWindow){
+            if (windowStart != 0){
+                double seconds = (now-windowStart)/1e9;
+                double[] rates = new double[counters+1];
+                rates[0] = (ticks-windowTicks)/seconds;
+                for (int k = 0; k < counters; k++){
+                    rates[k+1] = (totals[k]-windowTotals[k])/seconds;
+                }
+                this.rates = rates;
+            }
+            windowStart = now;
+            windowTicks = ticks;
+            System.arraycopy(totals, 0, windowTotals, 0, counters);
+        }
+    }
+
+    @Override
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled){
+        this.enabled = enabled;
+    }
+
+    @Override
+    public Map<String, Long> getTotals(){
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("ticks", ticks);
+        for (int k = 0; k < counters; k++){
+            result.put(counterNames[k], totals[k]);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getRatesPerSecond(){
+        double[] rates = this.rates;
+        Map<String, Double> result = new LinkedHashMap<>();
+        result.put("ticks", rates[0]);
+        for (int k = 0; k < counters; k++){
+            result.put(counterNames[k], rates[k+1]);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getMedianMicros(){
+        return percentileMicros(50);
+    }
+
+    @Override
+    public Map<String, Double> getP99Micros(){
+        return percentileMicros(99);
+    }
+
+    @Override
+    public Map<String, Double> getMaxMicros(){
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int p = 0; p < phases.length; p++){
+            result.put(phaseNames[p], phases[p].getMax()/1e3);
+        }
+        return result;
+    }
+
+    @Override
+    public void reset(){
+        resetRequested = true;
+        rates = new double[counters+1];
+        for (LatencyHistogram phase : phases){
+            phase.reset();
+        }
+    }
+
+    /**
+     * @return a few lines summing up the statistics, to be shown on screen.
+     */
+    String summary(){
+        double[] rates = this.rates;
+        StringBuilder summary = new StringBuilder(String.format("%.0f updates/s, %.0f crossings/s%n%.0f pairs tested/s, %.0f collisions/s (%.0f walls, %.0f blocks)",
+                rates[0], rates[membraneCrossings+1], rates[candidatePairs+1], rates[particleCollisions+1], rates[wallCollisions+1], rates[blockCollisions+1]));
+        //Only phases that were gone through are shown (e.g. events only in the event-driven mode)
+        for (int p = 0; p < phases.length; p++){
+            if (phases[p].getTotal() > 0){
+                summary.append(String.format("%n%s: p50 %.1f, p99 %.1f, max %.1f us", phaseNames[p],
+                        phases[p].getPercentile(50)/1e3, phases[p].getPercentile(99)/1e3, phases[p].getMax()/1e3));
+            }
+        }
+        return summary.toString();
+    }
+
+    private Map<String, Double> percentileMicros(double percentile){
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int p = 0; p < phases.length; p++){
+            result.put(phaseNames[p], phases[p].getPercentile(percentile)/1e3);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+import java.util.Map;
+
+/**
+ * Management interface of {@code TickMetrics}, through which the statistics of a running simulation can be read with any JMX client
+ * (e.g. JConsole or VisualVM).
+ */
+public interface TickMetricsMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * Starts or stops recording statistics. Nothing is timed or counted while recording is stopped.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return number of updates and of each kind of work done (candidate pairs tested, collisions and membrane crossings) since the last reset.
+     */
+    Map<String, Long> getTotals();
+
+    /**
+     * @return number of updates and of each kind of work done per second, over the last full second of running.
+     */
+    Map<String, Double> getRatesPerSecond();
+
+    /**
+     * @return median duration of each phase of an update (and of rendering a frame) in microseconds.
+     */
+    Map<String, Double> getMedianMicros();
+
+    /**
+     * @return 99th percentile of the duration of each phase of an update (and of rendering a frame) in microseconds.
+     */
+    Map<String, Double> getP99Micros();
+
+    /**
+     * @return longest duration of each phase of an update (and of rendering a frame) in microseconds.
+     */
+    Map<String, Double> getMaxMicros();
+
+    /**
+     * Clears all statistics recorded so far.
+     */
+    void reset();
+}
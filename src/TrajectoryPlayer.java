@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Plays back a file recorded by {@code TrajectoryRecorder}, frame by frame or by jumping to any frame.
+ *
+ * A frame is found through the index of the file, then decoded from the keyframe before it - so reaching any frame takes
+ * at most {@code keyframeInterval} frames of decoding whatever the length of the recording, and playing forward decodes one frame at a time.
+ * Frames are read through memory-mapped regions of the file, so the file is never read as a whole.
+ */
+class TrajectoryPlayer implements AutoCloseable {
+
+    //Size of the regions of the file mapped at once
+    private static final long regionSize = 64 << 20;
+
+    private final FileChannel channel;
+    private final long end;
+    private final int height, width;
+    private final Membrane membrane;
+    private long[] offsets;
+    private int frames;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    //Quantized state of every particle in the last frame decoded, and the index and tick of that frame (-1 if none)
+    private int decoded = -1;
+    private long tick;
+    private int count;
+    private short[] qx, qy, qa;
+    private byte[] radius, species;
+    //Snapshot of the decoded state, null until asked for
+    private FrameSnapshot shown;
+
+    /**
+     * Opens a recording.
+     *
+     * @param file File written by {@code TrajectoryRecorder}.
+     * @throws IOException if the file can not be read or is not a recording.
+     */
+    TrajectoryPlayer(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TrajectoryRecorder.headerLength);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < TrajectoryRecorder.headerLength || header.getInt() != TrajectoryRecorder.magic
+                    || header.getInt() != TrajectoryRecorder.version){
+                throw new IOException("Not a recording: "+file);
+            }
+            long end = header.getLong();
+            long indexOffset = header.getLong();
+            frames = header.getInt();
+            height = header.getInt();
+            width = header.getInt();
+            header.getInt();
+            double blockWidth = header.getDouble();
+            int blockCount = header.getInt();
+
+            ByteBuffer blocks = ByteBuffer.allocate(16*blockCount);
+            channel.read(blocks, TrajectoryRecorder.headerLength);
+            blocks.flip();
+            double[] top = new double[blockCount], bottom = new double[blockCount];
+            for (int j = 0; j < blockCount; j++){
+                top[j] = blocks.getDouble();
+                bottom[j] = blocks.getDouble();
+            }
+            membrane = new Membrane(blockWidth, top, bottom);
+            long first = TrajectoryRecorder.headerLength+16L*blockCount;
+
+            if (end != 0){
+                this.end = end;
+                offsets = new long[frames];
+                ByteBuffer index = ByteBuffer.allocate(8*frames);
+                channel.read(index, indexOffset);
+                index.flip();
+                index.asLongBuffer().get(offsets);
+            } else {
+                //Recording never stopped - find the frames by their lengths, up to the last complete one
+                this.end = channel.size();
+                offsets = new long[1024];
+                frames = 0;
+                ByteBuffer length = ByteBuffer.allocate(4);
+                for (long position = first; position+TrajectoryRecorder.frameHeaderLength <= this.end; ){
+                    length.clear();
+                    channel.read(length, position);
+                    int frameLength = length.flip().getInt();
+                    if (frameLength < TrajectoryRecorder.frameHeaderLength || position+frameLength > this.end) break;
+                    if (frames == offsets.length){
+                        offsets = Arrays.copyOf(offsets, frames*2);
+                    }
+                    offsets[frames++] = position;
+                    position += frameLength;
+                }
+            }
+        } catch (IOException | RuntimeException e){
+            channel.close();
+            throw e;
+        }
+        qx = new short[0];
+        qy = new short[0];
+        qa = new short[0];
+        radius = new byte[0];
+        species = new byte[0];
+    }
+
+    /**
+     * @return number of frames in the recording.
+     */
+    int getFrameCount(){
+        return frames;
+    }
+
+    /**
+     * Decodes a frame.
+     *
+     * @param frame Index of the frame, from 0 to {@link #getFrameCount()}-1.
+     * @return snapshot of the simulation as recorded in that frame - the same instance as last time if the frame was the last one asked for.
+     * @throws IOException if the file can not be read.
+     */
+    FrameSnapshot frameAt(int frame) throws IOException {
+        //Playing forward only needs the frames since the last one decoded, otherwise start again from the keyframe before the frame
+        if (frame != decoded){
+            int from = frame;
+            while (from != decoded+1 && !isKeyframe(from)){
+                from--;
+            }
+            for (int f = from; f <= frame; f++){
+                decode(f);
+            }
+        }
+        if (shown == null){
+            shown = snapshot();
+        }
+        return shown;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private boolean isKeyframe(int frame) throws IOException {
+        ByteBuffer buffer = map(offsets[frame], TrajectoryRecorder.frameHeaderLength);
+        return buffer.get(buffer.position()+16) == 1;
+    }
+
+    /**
+     * Applies frame {@code f} to the decoded state - either a keyframe, or the frame following the one last decoded.
+     */
+    private void decode(int f) throws IOException {
+        ByteBuffer header = map(offsets[f], TrajectoryRecorder.frameHeaderLength);
+        int length = header.getInt(header.position());
+        ByteBuffer buffer = map(offsets[f], length);
+        int start = buffer.position();
+        long newTick = buffer.getLong(start+4);
+        int newCount = buffer.getInt(start+12);
+        boolean keyframe = buffer.get(start+16) == 1;
+        if (qx.length < newCount){
+            int capacity = Math.max(newCount, qx.length*2);
+            qx = Arrays.copyOf(qx, capacity);
+            qy = Arrays.copyOf(qy, capacity);
+            qa = Arrays.copyOf(qa, capacity);
+            radius = Arrays.copyOf(radius, capacity);
+            species = Arrays.copyOf(species, capacity);
+        }
+        buffer.position(start+TrajectoryRecorder.frameHeaderLength);
+        for (int i = 0; i < newCount; i++){
+            if (keyframe || i >= count){
+                qx[i] = buffer.getShort();
+                qy[i] = buffer.getShort();
+                qa[i] = buffer.getShort();
+                radius[i] = buffer.get();
+                species[i] = buffer.get();
+            } else {
+                qx[i] += getVarint(buffer);
+                qy[i] += getVarint(buffer);
+                qa[i] += getVarint(buffer);
+            }
+        }
+        count = newCount;
+        tick = newTick;
+        decoded = f;
+        shown = null;
+    }
+
+    /**
+     * @return snapshot of the decoded state.
+     */
+    private FrameSnapshot snapshot(){
+        double[] x = new double[count], y = new double[count], vX = new double[count], vY = new double[count];
+        double[] radius = new double[count];
+        int[] species = new int[count];
+        int[] leftCount = new int[2], rightCount = new int[2];
+        for (int i = 0; i < count; i++){
+            x[i] = qx[i]/TrajectoryRecorder.positionScale;
+            y[i] = qy[i]/TrajectoryRecorder.positionScale;
+            double angle = qa[i]/TrajectoryRecorder.angleScale;
+            vX[i] = Math.cos(angle);
+            vY[i] = Math.sin(angle);
+            radius[i] = this.radius[i];
+            species[i] = this.species[i];
+            if (x[i] >= 0){
+                rightCount[species[i]]++;
+            } else {
+                leftCount[species[i]]++;
+            }
+        }
+        //Recordings do not hold the ids of particles
+        return new FrameSnapshot(tick, System.nanoTime(), count, x, y, vX, vY, radius, species, null, leftCount, rightCount, height, width, membrane);
+    }
+
+    /**
+     * @return buffer positioned at {@code position} in the file, with at least {@code length} bytes after it.
+     */
+    private ByteBuffer map(long position, int length) throws IOException {
+        if (region == null || position < regionStart || position+length > regionStart+region.capacity()){
+            regionStart = position;
+            region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, Math.min(end-regionStart, Math.max(regionSize, length)));
+        }
+        region.position((int)(position-regionStart));
+        return region;
+    }
+
+    private static short getVarint(ByteBuffer buffer){
+        int value = 0;
+        for (int shift = 0; ; shift += 7){
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) break;
+        }
+        return (short)((value >>> 1) ^ -(value & 1));
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the snapshots of a simulation into a binary file, to be played back by {@code TrajectoryPlayer}.
+ *
+ * Snapshots are handed over by the simulation thread without waiting, through a ring buffer only moved forward by the simulation thread
+ * at its head and by a thread of the recorder at its tail, and written by the thread of the recorder into the file
+ * through memory-mapped regions. Positions are quantized to 1/{@code positionScale} of a unit and directions to 1/65536 of a turn;
+ * every {@code keyframeInterval} frames (and whenever particles were removed since the last frame), a keyframe holds the full state of every particle,
+ * and the frames in between only hold the change from the previous frame as variable-length integers.
+ * The position of every frame in the file is written to an index when recording stops, so any frame can be found at once.
+ *
+ * The file starts with a header: magic, version, end of the file, position of the index, number of frames, height and width of the area,
+ * keyframe interval, width of the membrane, number of blocks and the top and bottom of each block.
+ * Each frame then holds its length in bytes, tick, number of particles and whether it is a keyframe, followed by its particles.
+ * The end of the file is only written when recording stops - a file without it (e.g. after a crash) is read up to the last complete frame.
+ */
+class TrajectoryRecorder implements Runnable {
+
+    static final int magic = 0x44545231;
+    static final int version = 1;
+    //Length of the header before the blocks of the membrane, and position in it of the values only known when recording stops
+    static final int headerLength = 52;
+    static final int endPosition = 8;
+    //Length of the part of a frame before its particles
+    static final int frameHeaderLength = 17;
+    //Keyframes hold 8 bytes per particle: x, y and direction (shorts), radius and species (bytes)
+    static final int keyframeParticleLength = 8;
+    static final double positionScale = 16;
+    static final double angleScale = 32768/Math.PI;
+
+    //Size of the regions of the file mapped at once
+    private static final long regionSize = 16 << 20;
+    //Snapshots waiting to be written beyond this number (a power of two) are dropped rather than held, so that a slow disk never holds the simulation back
+    private static final int maxPending = 64;
+
+    private final FileChannel channel;
+    private final int keyframeInterval;
+    private final Thread writer;
+
+    //Snapshots waiting to be written, and number of snapshots handed over and taken out so far - the head is only moved by the simulation thread,
+    //the tail by the writer
+    private final FrameSnapshot[] pending = new FrameSnapshot[maxPending];
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+    private volatile boolean closing;
+    //Only changed by the simulation thread
+    private volatile long dropped;
+    private volatile IOException failure;
+
+    //Writer thread only - region of the file currently mapped and the position in the file where it starts
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long position;
+    //Position of every frame written so far
+    private long[] offsets;
+    private int frames;
+    //Quantized state and id of every particle in the last frame written
+    private int previousCount;
+    private short[] qx, qy, qa;
+    private int[] ids;
+    private int sinceKeyframe;
+
+    /**
+     * Creates the file and starts the thread writing into it.
+     *
+     * @param file File to record into, replaced if it exists.
+     * @param first First snapshot to record, giving the area and membrane of the recording - held by the caller, and released once written.
+     * @param keyframeInterval Number of frames between two keyframes.
+     * @throws IOException if the file can not be created.
+     */
+    TrajectoryRecorder(Path file, FrameSnapshot first, int keyframeInterval) throws IOException {
+        this.keyframeInterval = keyframeInterval;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Membrane membrane = first.getMembrane();
+        ByteBuffer header = ByteBuffer.allocate(headerLength+16*membrane.getBlockCount());
+        header.putInt(magic).putInt(version).putLong(0).putLong(0).putInt(0);
+        header.putInt(first.getHeight()).putInt(first.getWidth()).putInt(keyframeInterval);
+        header.putDouble(membrane.getHalfWidth()*2).putInt(membrane.getBlockCount());
+        for (int j = 0; j < membrane.getBlockCount(); j++){
+            header.putDouble(membrane.getTop(j)).putDouble(membrane.getBottom(j));
+        }
+        header.flip();
+        position = header.remaining();
+        channel.write(header, 0);
+
+        offsets = new long[1024];
+        qx = new short[0];
+        qy = new short[0];
+        qa = new short[0];
+        ids = new int[0];
+        pending[0] = first;
+        head.set(1);
+        writer = new Thread(this, "Trajectory recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Checks whether there is room for one more snapshot, before the snapshot is taken. Never waits - if too many snapshots are already waiting,
+     * the update is counted as dropped. Only to be called by the simulation thread.
+     *
+     * @return whether a snapshot is to be handed over by {@link #record(FrameSnapshot)}.
+     */
+    boolean tryReserve(){
+        if (head.get()-tail.get() == maxPending){
+            dropped++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hands a snapshot held by the caller over to be written, along with its hold, after room was made for it by {@link #tryReserve()}.
+     * The snapshot is released once written. Only to be called by the simulation thread.
+     */
+    void record(FrameSnapshot frame){
+        long h = head.get();
+        pending[(int)(h & (maxPending-1))] = frame;
+        //The slot is written before the writer can see it
+        head.lazySet(h+1);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return number of updates left out of the recording so far because the file could not be written fast enough.
+     * Frames hold the tick of their update, so the updates left out show as gaps between the ticks of consecutive frames.
+     */
+    long getDropped(){
+        return dropped;
+    }
+
+    /**
+     * Writes the snapshots still waiting and the index, and closes the file.
+     *
+     * @throws IOException if the file could not be written.
+     */
+    void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (failure != null){
+                throw failure;
+            }
+            //Index after the last frame, then the values of the header only known now
+            ByteBuffer index = ByteBuffer.allocate(8*frames);
+            index.asLongBuffer().put(offsets, 0, frames);
+            long indexOffset = position;
+            long end = indexOffset+index.capacity();
+            channel.write(index, indexOffset);
+            ByteBuffer header = ByteBuffer.allocate(20);
+            header.putLong(end).putLong(indexOffset).putInt(frames).flip();
+            channel.write(header, endPosition);
+            //The last mapped region may reach past the end - the rest is cut off where the platform allows it while the region is mapped
+            try {
+                channel.truncate(end);
+            } catch (IOException e){
+                //The reader stops at the end written in the header anyway
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true){
+                long t = tail.get();
+                if (t == head.get()){
+                    if (closing){
+                        break;
+                    }
+                    LockSupport.park(this);
+                    continue;
+                }
+                int slot = (int)(t & (maxPending-1));
+                FrameSnapshot frame = pending[slot];
+                pending[slot] = null;
+                tail.lazySet(t+1);
+                try {
+                    write(frame);
+                } finally {
+                    frame.release();
+                }
+            }
+        } catch (IOException e){
+            failure = e;
+        }
+    }
+
+    /**
+     * Appends a frame to the file.
+     */
+    private void write(FrameSnapshot frame) throws IOException {
+        int count = frame.getCount();
+        //Make sure the whole frame fits in the mapped region (a keyframe is the longest a frame can be)
+        long longest = frameHeaderLength+(long)count*Math.max(keyframeParticleLength, 9);
+        if (region == null || position+longest > regionStart+region.capacity()){
+            regionStart = position;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(regionSize, longest));
+        }
+        if (frames == offsets.length){
+            offsets = Arrays.copyOf(offsets, frames*2);
+        }
+        offsets[frames++] = position;
+        if (qx.length < count){
+            qx = Arrays.copyOf(qx, Math.max(count, qx.length*2));
+            qy = Arrays.copyOf(qy, qx.length);
+            qa = Arrays.copyOf(qa, qx.length);
+            ids = Arrays.copyOf(ids, qx.length);
+        }
+
+        //Particles that were removed can not be described by a change, so the state is written out in full
+        //A removed particle is replaced by the last one, so particles may have moved to other indices even if the count did not go down
+        boolean keyframe = sinceKeyframe == 0 || count < previousCount;
+        for (int i = 0; !keyframe && i < previousCount; i++){
+            keyframe = ids[i] != frame.getId(i);
+        }
+        int start = (int)(position-regionStart);
+        region.position(start+frameHeaderLength);
+        for (int i = 0; i < count; i++){
+            short x = (short)Math.round(frame.getX(i)*positionScale);
+            short y = (short)Math.round(frame.getY(i)*positionScale);
+            short a = (short)Math.round(Math.atan2(frame.getVY(i), frame.getVX(i))*angleScale);
+            if (keyframe || i >= previousCount){
+                region.putShort(x).putShort(y).putShort(a);
+                region.put((byte)Math.round(frame.getRadius(i))).put((byte)frame.getSpecies(i));
+            } else {
+                putVarint((short)(x-qx[i]));
+                putVarint((short)(y-qy[i]));
+                putVarint((short)(a-qa[i]));
+            }
+            qx[i] = x;
+            qy[i] = y;
+            qa[i] = a;
+            ids[i] = frame.getId(i);
+        }
+        int length = region.position()-start;
+        region.putInt(start, length).putLong(start+4, frame.getTick()).putInt(start+12, count).put(start+16, (byte)(keyframe ? 1 : 0));
+        position += length;
+        previousCount = count;
+        sinceKeyframe = (keyframe ? 1 : sinceKeyframe+1) % keyframeInterval;
+    }
+
+    /**
+     * Writes a change in a quantized value in as few bytes as its size allows (7 bits per byte, smallest magnitudes first).
+     */
+    private void putVarint(short change){
+        int value = (change << 1) ^ (change >> 31);
+        while ((value & ~0x7F) != 0){
+            region.put((byte)((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        region.put((byte)value);
+    }
+}
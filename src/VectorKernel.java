@@ -0,0 +1,121 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@code ParticleKernel} going through as many particles at once as the SIMD registers of the processor hold, using the Vector API.
+ *
+ * Each lane does the same arithmetic as {@code ScalarKernel} in the same order, so results are the same down to the last bit.
+ * Rare events (crossing the equator, reaching the membrane) are found as masks over all lanes and only then handled one particle at a time.
+ * The particles left over after the last full vector are handled one at a time, and so are particles held off the heap
+ * (only the arrays of a {@code HeapParticleStore} are loaded into vectors).
+ *
+ * Compiling and loading this class needs {@code --add-modules jdk.incubator.vector}; it is only loaded by {@link ParticleKernel#fastest()}
+ * once the module is known to be present.
+ */
+final class VectorKernel implements ParticleKernel {
+
+    private static final VectorSpecies<Double> lanes = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> intLanes = IntVector.SPECIES_PREFERRED;
+
+    private final ScalarKernel tail = new ScalarKernel();
+
+    /**
+     * @return whether the processor handles more than one double at once, without which vectors are slower than scalars.
+     */
+    static boolean isWorthwhile(){
+        return lanes.length() > 1;
+    }
+
+    @Override
+    public int integrate(ParticleStore particles, int from, int to, double speed, int[] rightDelta){
+        if (!(particles instanceof HeapParticleStore)){
+            return tail.integrate(particles, from, to, speed, rightDelta);
+        }
+        HeapParticleStore heap = (HeapParticleStore)particles;
+        double[] x = heap.x, y = heap.y, vX = heap.vX, vY = heap.vY;
+        int[] species = heap.species;
+        int crossings = 0;
+        int i = from;
+        for (int bound = from+lanes.loopBound(to-from); i < bound; i += lanes.length()){
+            DoubleVector oldX = DoubleVector.fromArray(lanes, x, i);
+            DoubleVector newX = oldX.add(DoubleVector.fromArray(lanes, vX, i).mul(speed));
+            newX.intoArray(x, i);
+            DoubleVector.fromArray(lanes, y, i).add(DoubleVector.fromArray(lanes, vY, i).mul(speed)).intoArray(y, i);
+            VectorMask<Double> crossed = oldX.compare(VectorOperators.GE, 0).eq(newX.compare(VectorOperators.GE, 0)).not();
+            if (crossed.anyTrue()){
+                for (int k = crossed.firstTrue(); k < lanes.length(); k++){
+                    if (crossed.laneIsSet(k)){
+                        rightDelta[species[i+k]] += x[i+k] >= 0 ? 1 : -1;
+                        crossings++;
+                    }
+                }
+            }
+        }
+        return crossings+tail.integrate(particles, i, to, speed, rightDelta);
+    }
+
+    @Override
+    public void countDown(ParticleStore particles, int from, int to, int reset){
+        if (!(particles instanceof HeapParticleStore)){
+            tail.countDown(particles, from, to, reset);
+            return;
+        }
+        int[] buffer = ((HeapParticleStore)particles).buffer, lastCollide = ((HeapParticleStore)particles).lastCollide;
+        int i = from;
+        for (int bound = from+intLanes.loopBound(to-from); i < bound; i += intLanes.length()){
+            IntVector counted = IntVector.fromArray(intLanes, buffer, i).sub(1);
+            VectorMask<Integer> done = counted.eq(0);
+            counted.blend(reset, done).intoArray(buffer, i);
+            if (done.anyTrue()){
+                IntVector.broadcast(intLanes, -1).intoArray(lastCollide, i, done);
+            }
+        }
+        tail.countDown(particles, i, to, reset);
+    }
+
+    @Override
+    public int reflectOffWalls(ParticleStore particles, int from, int to, double halfWidth, double halfHeight){
+        if (!(particles instanceof HeapParticleStore)){
+            return tail.reflectOffWalls(particles, from, to, halfWidth, halfHeight);
+        }
+        HeapParticleStore heap = (HeapParticleStore)particles;
+        double[] x = heap.x, y = heap.y, vX = heap.vX, vY = heap.vY, radius = heap.radius;
+        int bounced = 0;
+        int i = from;
+        for (int bound = from+lanes.loopBound(to-from); i < bound; i += lanes.length()){
+            DoubleVector r = DoubleVector.fromArray(lanes, radius, i);
+            DoubleVector px = DoubleVector.fromArray(lanes, x, i), py = DoubleVector.fromArray(lanes, y, i);
+            DoubleVector vx = DoubleVector.fromArray(lanes, vX, i), vy = DoubleVector.fromArray(lanes, vY, i);
+            VectorMask<Double> bounceX = px.compare(VectorOperators.GE, DoubleVector.broadcast(lanes, halfWidth).sub(r)).and(vx.compare(VectorOperators.GT, 0))
+                    .or(px.compare(VectorOperators.LE, DoubleVector.broadcast(lanes, -halfWidth).add(r)).and(vx.compare(VectorOperators.LT, 0)));
+            VectorMask<Double> bounceY = py.compare(VectorOperators.GE, DoubleVector.broadcast(lanes, halfHeight).sub(r)).and(vy.compare(VectorOperators.GT, 0))
+                    .or(py.compare(VectorOperators.LE, DoubleVector.broadcast(lanes, -halfHeight).add(r)).and(vy.compare(VectorOperators.LT, 0)));
+            vx.blend(vx.neg(), bounceX).intoArray(vX, i);
+            vy.blend(vy.neg(), bounceY).intoArray(vY, i);
+            bounced += bounceX.or(bounceY).trueCount();
+        }
+        return bounced+tail.reflectOffWalls(particles, i, to, halfWidth, halfHeight);
+    }
+
+    @Override
+    public int nextAlongside(ParticleStore particles, int from, int to, double halfWidth){
+        if (!(particles instanceof HeapParticleStore)){
+            return tail.nextAlongside(particles, from, to, halfWidth);
+        }
+        double[] x = ((HeapParticleStore)particles).x, radius = ((HeapParticleStore)particles).radius;
+        int i = from;
+        for (int bound = from+lanes.loopBound(to-from); i < bound; i += lanes.length()){
+            DoubleVector r = DoubleVector.fromArray(lanes, radius, i);
+            DoubleVector px = DoubleVector.fromArray(lanes, x, i);
+            VectorMask<Double> alongside = px.compare(VectorOperators.GE, DoubleVector.broadcast(lanes, -halfWidth).sub(r))
+                    .and(px.compare(VectorOperators.LE, DoubleVector.broadcast(lanes, halfWidth).add(r)));
+            if (alongside.anyTrue()){
+                return i+alongside.firstTrue();
+            }
+        }
+        return tail.nextAlongside(particles, i, to, halfWidth);
+    }
+}